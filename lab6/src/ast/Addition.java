@@ -19,6 +19,11 @@ public class Addition extends Command implements Expression {
         return right;
     }
 
+    @Override
+    public int kind() {
+        return Kind.ADDITION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -18,6 +18,11 @@ public class AddressOf extends Command implements Expression {
         return super.toString() + "[" + symbol.name() + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.ADDRESS_OF;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
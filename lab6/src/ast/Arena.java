@@ -0,0 +1,473 @@
+package ast;
+
+import crux.Symbol;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+
+// A tree kept in parallel arrays of primitives instead of one object per
+// node. A node is an index into the arrays, which hold its Kind, position,
+// first child, next sibling and payload. Children are linked in the order
+// the visitors take them. The payload is the value of a literal or the
+// operation of a Comparison, or else an index into the few objects the
+// arrays cannot hold: symbols, parameter lists and error messages.
+//
+// A Cursor or walk() moves over the indexes the way Traversal moves over a
+// tree of Commands. add() copies a tree of Commands in, and toCommand()
+// builds one back out for the code that still takes Commands, such as
+// PrettyPrinter. Neither recurses, so trees of any depth can be converted.
+// No phase of the compiler uses an Arena yet, and nothing on the compile
+// path depends on it.
+public class Arena {
+
+    public static final int NONE = -1;
+
+    public interface Visitor {
+
+        void enter(int node);
+
+        void leave(int node);
+    }
+
+    private byte[] kinds;
+    private int[] lines;
+    private int[] positions;
+    private int[] firstChildren;
+    private int[] nextSiblings;
+    private int[] payloads;
+    private final ArrayList<Object> objects = new ArrayList<>();
+    private int size;
+
+    // only while building, until trim(): each node's last child, and the
+    // index in objects of each symbol or message already added
+    private int[] lastChildren;
+    private IdentityHashMap<Object, Integer> interned = new IdentityHashMap<>();
+
+    public Arena() {
+        this(64);
+    }
+
+    public Arena(int capacity) {
+        capacity = Math.max(1, capacity);
+        kinds = new byte[capacity];
+        lines = new int[capacity];
+        positions = new int[capacity];
+        firstChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        lastChildren = new int[capacity];
+        payloads = new int[capacity];
+    }
+
+    // An arena holding a copy of the tree, rooted at node 0
+    public static Arena of(Command root) {
+        final Arena arena = new Arena();
+        arena.add(root, NONE);
+        arena.trim();
+        return arena;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    // Building ====
+
+    // Adds a node as the last child of parent, or as a root if parent is
+    // NONE, and returns it
+    public int add(int kind, int lineNum, int charPos, int parent) {
+        if (lastChildren == null) {
+            throw new IllegalStateException("The arena was trimmed");
+        }
+        if (size == kinds.length) {
+            final int capacity = size * 2;
+            kinds = Arrays.copyOf(kinds, capacity);
+            lines = Arrays.copyOf(lines, capacity);
+            positions = Arrays.copyOf(positions, capacity);
+            firstChildren = Arrays.copyOf(firstChildren, capacity);
+            nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+            lastChildren = Arrays.copyOf(lastChildren, capacity);
+            payloads = Arrays.copyOf(payloads, capacity);
+        }
+        final int node = size++;
+        kinds[node] = (byte) kind;
+        lines[node] = lineNum;
+        positions[node] = charPos;
+        firstChildren[node] = NONE;
+        nextSiblings[node] = NONE;
+        lastChildren[node] = NONE;
+        payloads[node] = NONE;
+        if (parent != NONE) {
+            if (lastChildren[parent] == NONE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+        }
+        return node;
+    }
+
+    // Sets the payload of a literal or a Comparison
+    public void setValue(int node, int value) {
+        payloads[node] = value;
+    }
+
+    // Sets the object of a node: the symbol of a declaration, AddressOf or
+    // Call, or the message of an Error. Nodes with the same object share it.
+    public void setObject(int node, Object value) {
+        Integer index = interned.get(value);
+        if (index == null) {
+            index = objects.size();
+            objects.add(value);
+            interned.put(value, index);
+        }
+        payloads[node] = index;
+    }
+
+    // Sets the symbol and parameters of a FunctionDefinition
+    public void setFunction(int node, Symbol function, List<Symbol> arguments) {
+        payloads[node] = objects.size();
+        objects.add(function);
+        objects.add(arguments);
+    }
+
+    // Ends the building: drops the spare capacity and the building state,
+    // so the arena holds only its nodes
+    public void trim() {
+        kinds = Arrays.copyOf(kinds, size);
+        lines = Arrays.copyOf(lines, size);
+        positions = Arrays.copyOf(positions, size);
+        firstChildren = Arrays.copyOf(firstChildren, size);
+        nextSiblings = Arrays.copyOf(nextSiblings, size);
+        payloads = Arrays.copyOf(payloads, size);
+        objects.trimToSize();
+        lastChildren = null;
+        interned = null;
+    }
+
+    // Adds a copy of a tree of Commands, as the last child of parent or as
+    // a root, and returns its root
+    public int add(Command root, int parent) {
+        Command[] nodes = new Command[16];
+        int[] indexes = new int[16];
+        int[] next = new int[16];
+        int depth = 0;
+        nodes[0] = root;
+        indexes[0] = addNode(root, parent);
+        while (depth >= 0) {
+            final Command child = Traversal.treeChild(nodes[depth], next[depth]++);
+            if (child == null) {
+                nodes[depth--] = null;
+            } else {
+                final int index = addNode(child, indexes[depth]);
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    indexes = Arrays.copyOf(indexes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                indexes[depth] = index;
+                next[depth] = 0;
+            }
+        }
+        return indexes[0];
+    }
+
+    private int addNode(Command node, int parent) {
+        final int kind = node.kind();
+        final int index = add(kind, node.lineNumber(), node.charPosition(), parent);
+        switch (kind) {
+            case Kind.ADDRESS_OF:
+                setObject(index, ((AddressOf) node).symbol());
+                break;
+            case Kind.LITERAL_BOOL:
+                setValue(index, ((LiteralBool) node).value().ordinal());
+                break;
+            case Kind.LITERAL_FLOAT:
+                setValue(index, Float.floatToRawIntBits(((LiteralFloat) node).value()));
+                break;
+            case Kind.LITERAL_INT:
+                setValue(index, ((LiteralInt) node).value());
+                break;
+            case Kind.VARIABLE_DECLARATION:
+            case Kind.ARRAY_DECLARATION:
+                setObject(index, ((Declaration) node).symbol());
+                break;
+            case Kind.FUNCTION_DEFINITION:
+                final FunctionDefinition function = (FunctionDefinition) node;
+                setFunction(index, function.function(), function.arguments());
+                break;
+            case Kind.COMPARISON:
+                setValue(index, ((Comparison) node).operation().ordinal());
+                break;
+            case Kind.CALL:
+                setObject(index, ((Call) node).function());
+                break;
+            case Kind.ERROR:
+                setObject(index, ((Error) node).message());
+                break;
+        }
+        return index;
+    }
+
+    // Nodes ====
+
+    public int kind(int node) {
+        return kinds[node];
+    }
+
+    public int lineNumber(int node) {
+        return lines[node];
+    }
+
+    public int charPosition(int node) {
+        return positions[node];
+    }
+
+    public int firstChild(int node) {
+        return firstChildren[node];
+    }
+
+    public int nextSibling(int node) {
+        return nextSiblings[node];
+    }
+
+    // The i-th child of node, or NONE
+    public int child(int node, int i) {
+        int child = firstChildren[node];
+        while (i-- > 0 && child != NONE) {
+            child = nextSiblings[child];
+        }
+        return child;
+    }
+
+    public Symbol symbol(int node) {
+        return (Symbol) objects.get(payloads[node]);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<Symbol> arguments(int node) {
+        return (List<Symbol>) objects.get(payloads[node] + 1);
+    }
+
+    public String message(int node) {
+        return (String) objects.get(payloads[node]);
+    }
+
+    public int intValue(int node) {
+        return payloads[node];
+    }
+
+    public float floatValue(int node) {
+        return Float.intBitsToFloat(payloads[node]);
+    }
+
+    public LiteralBool.Value boolValue(int node) {
+        return LiteralBool.Value.values()[payloads[node]];
+    }
+
+    public Comparison.Operation operation(int node) {
+        return Comparison.Operation.values()[payloads[node]];
+    }
+
+    // Walking ====
+
+    public Cursor cursor(int node) {
+        return new Cursor(node);
+    }
+
+    // A position in the subtree of the node it starts at. A move that has
+    // nowhere to go within the subtree returns false and leaves the cursor
+    // where it was.
+    public class Cursor {
+
+        private int[] ancestors = new int[16];
+        private int depth;
+        private int node;
+
+        private Cursor(int node) {
+            this.node = node;
+        }
+
+        public int node() {
+            return node;
+        }
+
+        public int kind() {
+            return kinds[node];
+        }
+
+        // The number of moves down from the node the cursor started at
+        public int depth() {
+            return depth;
+        }
+
+        public boolean firstChild() {
+            final int child = firstChildren[node];
+            if (child == NONE) {
+                return false;
+            }
+            if (depth == ancestors.length) {
+                ancestors = Arrays.copyOf(ancestors, depth * 2);
+            }
+            ancestors[depth++] = node;
+            node = child;
+            return true;
+        }
+
+        public boolean nextSibling() {
+            final int sibling = nextSiblings[node];
+            if (sibling == NONE || depth == 0) {
+                return false;
+            }
+            node = sibling;
+            return true;
+        }
+
+        public boolean parent() {
+            if (depth == 0) {
+                return false;
+            }
+            node = ancestors[--depth];
+            return true;
+        }
+    }
+
+    // Enters each node of the subtree before its children and leaves it
+    // after them, as Traversal does
+    public void walk(int root, Visitor visitor) {
+        final Cursor cursor = cursor(root);
+        visitor.enter(root);
+        while (true) {
+            if (cursor.firstChild()) {
+                visitor.enter(cursor.node());
+                continue;
+            }
+            visitor.leave(cursor.node());
+            while (!cursor.nextSibling()) {
+                if (!cursor.parent()) {
+                    return;
+                }
+                visitor.leave(cursor.node());
+            }
+            visitor.enter(cursor.node());
+        }
+    }
+
+    // Converting ====
+
+    // Builds the subtree as Commands. Their ids are new ones, numbered on
+    // this thread as any Commands built here would be.
+    public Command toCommand(int root) {
+        // a parent is listed before its children, so building the list
+        // backwards builds every child before its parent
+        int[] order = new int[16];
+        int count = 0;
+        int[] stack = new int[16];
+        int top = 0;
+        stack[top++] = root;
+        while (top > 0) {
+            final int node = stack[--top];
+            if (count == order.length) {
+                order = Arrays.copyOf(order, count * 2);
+            }
+            order[count++] = node;
+            for (int child = firstChildren[node]; child != NONE; child = nextSiblings[child]) {
+                if (top == stack.length) {
+                    stack = Arrays.copyOf(stack, top * 2);
+                }
+                stack[top++] = child;
+            }
+        }
+
+        final Command[] built = new Command[size];
+        for (int i = count - 1; i >= 0; i--) {
+            built[order[i]] = build(order[i], built);
+        }
+        return built[root];
+    }
+
+    private Command build(int node, Command[] built) {
+        final int lineNum = lines[node];
+        final int charPos = positions[node];
+        final int first = firstChildren[node];
+        final int second = first == NONE ? NONE : nextSiblings[first];
+        final int third = second == NONE ? NONE : nextSiblings[second];
+        switch (kinds[node]) {
+            case Kind.EXPRESSION_LIST: {
+                final ExpressionList list = new ExpressionList(lineNum, charPos);
+                for (int child = first; child != NONE; child = nextSiblings[child]) {
+                    list.add((Expression) built[child]);
+                }
+                return list;
+            }
+            case Kind.DECLARATION_LIST: {
+                final DeclarationList list = new DeclarationList(lineNum, charPos);
+                for (int child = first; child != NONE; child = nextSiblings[child]) {
+                    list.add((Declaration) built[child]);
+                }
+                return list;
+            }
+            case Kind.STATEMENT_LIST: {
+                final StatementList list = new StatementList(lineNum, charPos);
+                for (int child = first; child != NONE; child = nextSiblings[child]) {
+                    list.add((Statement) built[child]);
+                }
+                return list;
+            }
+            case Kind.ADDRESS_OF:
+                return new AddressOf(lineNum, charPos, symbol(node));
+            case Kind.LITERAL_BOOL:
+                return new LiteralBool(lineNum, charPos, boolValue(node));
+            case Kind.LITERAL_FLOAT:
+                return new LiteralFloat(lineNum, charPos, floatValue(node));
+            case Kind.LITERAL_INT:
+                return new LiteralInt(lineNum, charPos, intValue(node));
+            case Kind.VARIABLE_DECLARATION:
+                return new VariableDeclaration(lineNum, charPos, symbol(node));
+            case Kind.ARRAY_DECLARATION:
+                return new ArrayDeclaration(lineNum, charPos, symbol(node));
+            case Kind.FUNCTION_DEFINITION:
+                return new FunctionDefinition(lineNum, charPos, symbol(node), arguments(node),
+                        (StatementList) built[first]);
+            case Kind.ADDITION:
+                return new Addition(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.SUBTRACTION:
+                return new Subtraction(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.MULTIPLICATION:
+                return new Multiplication(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.DIVISION:
+                return new Division(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.LOGICAL_AND:
+                return new LogicalAnd(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.LOGICAL_OR:
+                return new LogicalOr(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.LOGICAL_NOT:
+                return new LogicalNot(lineNum, charPos, (Expression) built[first]);
+            case Kind.COMPARISON:
+                return new Comparison(lineNum, charPos, (Expression) built[first], operation(node),
+                        (Expression) built[second]);
+            case Kind.DEREFERENCE:
+                return new Dereference(lineNum, charPos, (Expression) built[first]);
+            case Kind.INDEX:
+                return new Index(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.ASSIGNMENT:
+                return new Assignment(lineNum, charPos, (Expression) built[first], (Expression) built[second]);
+            case Kind.CALL:
+                return new Call(lineNum, charPos, symbol(node), (ExpressionList) built[first]);
+            case Kind.IF_ELSE_BRANCH:
+                return new IfElseBranch(lineNum, charPos, (Expression) built[first], (StatementList) built[second],
+                        (StatementList) built[third]);
+            case Kind.WHILE_LOOP:
+                return new WhileLoop(lineNum, charPos, (Expression) built[first], (StatementList) built[second]);
+            case Kind.RETURN:
+                return new Return(lineNum, charPos, (Expression) built[first]);
+            case Kind.ERROR:
+                return new Error(lineNum, charPos, message(node));
+            default:
+                throw new IllegalStateException("Unknown kind " + kinds[node] + " of node " + node);
+        }
+    }
+}
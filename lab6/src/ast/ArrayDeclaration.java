@@ -21,6 +21,11 @@ public class ArrayDeclaration extends Command implements Declaration, Statement
         return super.toString() + "[" + symbol.toString() + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.ARRAY_DECLARATION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
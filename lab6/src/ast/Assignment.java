@@ -19,6 +19,11 @@ public class Assignment extends Command implements Statement {
         return source;
     }
 
+    @Override
+    public int kind() {
+        return Kind.ASSIGNMENT;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -26,6 +26,11 @@ public class Call extends Command implements Statement, Expression {
         return super.toString() + "[" + func + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.CALL;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
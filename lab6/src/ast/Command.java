@@ -4,14 +4,43 @@ import crux.Token;
 
 public abstract class Command implements Visitable {
 
+    // Nodes are numbered densely in the order they are built, starting again
+    // from 0 on each thread with every parse, so per-node results can be kept
+    // in arrays indexed by id() rather than in hash maps. A parse that builds
+    // parts of one tree on several threads gives each part its own range.
+    private static final ThreadLocal<int[]> nextId = ThreadLocal.withInitial(() -> new int[1]);
+
+    private final int id;
     private int lineNum;
     private int charPos;
 
     public Command(int lineNum, int charPos) {
+        this.id = nextId.get()[0]++;
         this.lineNum = lineNum;
         this.charPos = charPos;
     }
 
+    public static void resetIds() {
+        resetIds(0);
+    }
+
+    public static void resetIds(int first) {
+        nextId.get()[0] = first;
+    }
+
+    // The id the next node built on this thread will get
+    public static int nextId() {
+        return nextId.get()[0];
+    }
+
+    public int id() {
+        return id;
+    }
+
+    // One of the Kind constants, to switch on instead of dispatching
+    // through accept()
+    public abstract int kind();
+
     public int lineNumber() {
         return lineNum;
     }
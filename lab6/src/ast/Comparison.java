@@ -39,6 +39,11 @@ public class Comparison extends Command implements Expression {
         return super.toString() + "[" + op + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.COMPARISON;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -17,11 +17,24 @@ public class DeclarationList extends Command implements Iterable<Declaration> {
         list.add(command);
     }
 
+    public int size() {
+        return list.size();
+    }
+
+    public Declaration get(int index) {
+        return list.get(index);
+    }
+
     @Override
     public Iterator<Declaration> iterator() {
         return list.iterator();
     }
 
+    @Override
+    public int kind() {
+        return Kind.DECLARATION_LIST;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -13,6 +13,11 @@ public class Dereference extends Command implements Expression {
         return expression;
     }
 
+    @Override
+    public int kind() {
+        return Kind.DEREFERENCE;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -19,6 +19,11 @@ public class Division extends Command implements Expression {
         return right;
     }
 
+    @Override
+    public int kind() {
+        return Kind.DIVISION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -25,6 +25,11 @@ public class Error extends Command implements Declaration, Statement, Expression
         return Symbol.newError(message);
     }
 
+    @Override
+    public int kind() {
+        return Kind.ERROR;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
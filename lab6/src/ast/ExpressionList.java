@@ -21,11 +21,20 @@ public class ExpressionList extends Command implements Iterable<Expression> {
         return list.size();
     }
 
+    public Expression get(int index) {
+        return list.get(index);
+    }
+
     @Override
     public Iterator<Expression> iterator() {
         return list.iterator();
     }
 
+    @Override
+    public int kind() {
+        return Kind.EXPRESSION_LIST;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -0,0 +1,212 @@
+package ast;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+// A hash of everything code generation depends on in one declaration: the
+// shape of its tree, the literals and operators in it, and the name and
+// type of every symbol it references, so a callee or global whose type
+// changes changes the fingerprints of its users too. Line numbers are taken
+// relative to the declaration, so it keeps its fingerprint when code above
+// it moves.
+//
+// Expressions are walked by a Traversal, so a declaration with expressions
+// nested too deeply for the Java stack can still be fingerprinted; each
+// node is printed as it is entered, as a recursive walk would print it.
+public class Fingerprint extends SwitchVisitor implements Traversal.Visitor {
+
+    private final int baseLine;
+    private final StringBuilder sb = new StringBuilder();
+
+    private Fingerprint(int baseLine) {
+        this.baseLine = baseLine;
+    }
+
+    public static String of(Declaration declaration, String salt) {
+        final Command command = (Command) declaration;
+        final Fingerprint fingerprint = new Fingerprint(command.lineNumber());
+        fingerprint.sb.append(salt).append('\n');
+        fingerprint.dispatch(command);
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest(fingerprint.sb.toString().getBytes(StandardCharsets.UTF_8))) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private void println(Command node) {
+        final String s = node.toString();
+        sb.append(node.getClass().getSimpleName())
+                .append('(').append(node.lineNumber() - baseLine).append(',').append(node.charPosition()).append(')')
+                .append(s.substring(s.indexOf(')') + 1))
+                .append('\n');
+    }
+
+    private void expression(Visitable expression) {
+        Traversal.walk((Command) expression, this);
+    }
+
+    @Override
+    public void enter(Command node) {
+        dispatch(node);
+    }
+
+    @Override
+    public void leave(Command node) {
+    }
+
+    @Override
+    public void visit(ExpressionList node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(DeclarationList node) {
+        println(node);
+        for (Declaration d : node)
+            dispatch(d);
+    }
+
+    @Override
+    public void visit(StatementList node) {
+        println(node);
+        for (Statement s : node) {
+            if (s instanceof Call) {
+                expression(s);
+            } else {
+                dispatch(s);
+            }
+        }
+    }
+
+    @Override
+    public void visit(AddressOf node) {
+        println(node);
+        sb.append(node.symbol()).append('\n');
+    }
+
+    @Override
+    public void visit(LiteralBool node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(LiteralFloat node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(LiteralInt node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(VariableDeclaration node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(ArrayDeclaration node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(FunctionDefinition node) {
+        println(node);
+        dispatch(node.body());
+    }
+
+    @Override
+    public void visit(Comparison node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Addition node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Subtraction node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Multiplication node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Division node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(LogicalAnd node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(LogicalOr node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(LogicalNot node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Dereference node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Index node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(Assignment node) {
+        println(node);
+        expression(node.destination());
+        expression(node.source());
+    }
+
+    @Override
+    public void visit(Call node) {
+        println(node);
+    }
+
+    @Override
+    public void visit(IfElseBranch node) {
+        println(node);
+        expression(node.condition());
+        dispatch(node.thenBlock());
+        dispatch(node.elseBlock());
+    }
+
+    @Override
+    public void visit(WhileLoop node) {
+        println(node);
+        expression(node.condition());
+        dispatch(node.body());
+    }
+
+    @Override
+    public void visit(Return node) {
+        println(node);
+        expression(node.argument());
+    }
+
+    @Override
+    public void visit(Error node) {
+        println(node);
+    }
+}
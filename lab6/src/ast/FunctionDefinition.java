@@ -9,6 +9,10 @@ public class FunctionDefinition extends Command implements Declaration {
     private Symbol func;
     private StatementList body;
     private List<Symbol> args;
+    // false if Parser.parseReachable found main cannot reach the function:
+    // its body is then left empty and unparsed, and only its signature is
+    // checked
+    private boolean reached = true;
 
     public FunctionDefinition(int lineNum, int charPos, Symbol func, List<Symbol> args, StatementList body) {
         super(lineNum, charPos);
@@ -29,6 +33,14 @@ public class FunctionDefinition extends Command implements Declaration {
         return args;
     }
 
+    public boolean isReached() {
+        return reached;
+    }
+
+    public void setUnreached() {
+        reached = false;
+    }
+
     @Override
     public Symbol symbol() {
         return func;
@@ -39,6 +51,11 @@ public class FunctionDefinition extends Command implements Declaration {
         return super.toString() + "[" + func + ", " + args + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.FUNCTION_DEFINITION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -25,6 +25,11 @@ public class IfElseBranch extends Command implements Statement {
         return elseBlock;
     }
 
+    @Override
+    public int kind() {
+        return Kind.IF_ELSE_BRANCH;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
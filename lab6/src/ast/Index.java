@@ -19,6 +19,11 @@ public class Index extends Command implements Expression {
         return amount;
     }
 
+    @Override
+    public int kind() {
+        return Kind.INDEX;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
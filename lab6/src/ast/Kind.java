@@ -0,0 +1,38 @@
+package ast;
+
+// The kinds of node returned by Command.kind(), numbered densely in the
+// order of CommandVisitor so a kind fits in a byte and can be switched on
+public final class Kind {
+
+    public static final int EXPRESSION_LIST = 0;
+    public static final int DECLARATION_LIST = 1;
+    public static final int STATEMENT_LIST = 2;
+    public static final int ADDRESS_OF = 3;
+    public static final int LITERAL_BOOL = 4;
+    public static final int LITERAL_FLOAT = 5;
+    public static final int LITERAL_INT = 6;
+    public static final int VARIABLE_DECLARATION = 7;
+    public static final int ARRAY_DECLARATION = 8;
+    public static final int FUNCTION_DEFINITION = 9;
+    public static final int ADDITION = 10;
+    public static final int SUBTRACTION = 11;
+    public static final int MULTIPLICATION = 12;
+    public static final int DIVISION = 13;
+    public static final int LOGICAL_AND = 14;
+    public static final int LOGICAL_OR = 15;
+    public static final int LOGICAL_NOT = 16;
+    public static final int COMPARISON = 17;
+    public static final int DEREFERENCE = 18;
+    public static final int INDEX = 19;
+    public static final int ASSIGNMENT = 20;
+    public static final int CALL = 21;
+    public static final int IF_ELSE_BRANCH = 22;
+    public static final int WHILE_LOOP = 23;
+    public static final int RETURN = 24;
+    public static final int ERROR = 25;
+
+    public static final int COUNT = 26;
+
+    private Kind() {
+    }
+}
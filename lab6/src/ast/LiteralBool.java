@@ -23,6 +23,11 @@ public class LiteralBool extends Command implements Expression {
         return super.toString() + "[" + value + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.LITERAL_BOOL;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
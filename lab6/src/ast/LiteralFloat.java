@@ -18,6 +18,11 @@ public class LiteralFloat extends Command implements Expression {
         return super.toString() + "[" + value + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.LITERAL_FLOAT;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
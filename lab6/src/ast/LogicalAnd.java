@@ -19,6 +19,11 @@ public class LogicalAnd extends Command implements Expression {
         return right;
     }
 
+    @Override
+    public int kind() {
+        return Kind.LOGICAL_AND;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
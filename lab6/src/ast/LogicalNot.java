@@ -13,6 +13,11 @@ public class LogicalNot extends Command implements Expression {
         return expr;
     }
 
+    @Override
+    public int kind() {
+        return Kind.LOGICAL_NOT;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -19,6 +19,11 @@ public class Multiplication extends Command implements Expression {
         return right;
     }
 
+    @Override
+    public int kind() {
+        return Kind.MULTIPLICATION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
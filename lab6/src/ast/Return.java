@@ -13,6 +13,11 @@ public class Return extends Command implements Statement {
         return arg;
     }
 
+    @Override
+    public int kind() {
+        return Kind.RETURN;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -17,11 +17,24 @@ public class StatementList extends Command implements Iterable<Statement> {
         list.add(command);
     }
 
+    public int size() {
+        return list.size();
+    }
+
+    public Statement get(int index) {
+        return list.get(index);
+    }
+
     @Override
     public Iterator<Statement> iterator() {
         return list.iterator();
     }
 
+    @Override
+    public int kind() {
+        return Kind.STATEMENT_LIST;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
@@ -19,6 +19,11 @@ public class Subtraction extends Command implements Expression {
         return right;
     }
 
+    @Override
+    public int kind() {
+        return Kind.SUBTRACTION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
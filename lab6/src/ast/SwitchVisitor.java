@@ -0,0 +1,96 @@
+package ast;
+
+// A CommandVisitor that reaches its visits through one dense switch on
+// Command.kind() instead of through node.accept(this). accept() is a call
+// site in every node class that each visitor in the JVM passes through,
+// so with several visitors live, as in a compile server, they all become
+// megamorphic; dispatch() keeps the choice of visit inside the visitor.
+public abstract class SwitchVisitor implements CommandVisitor {
+
+    // Visits node as node.accept(this) would
+    protected void dispatch(Visitable node) {
+        final Command command = (Command) node;
+        switch (command.kind()) {
+            case Kind.EXPRESSION_LIST:
+                visit((ExpressionList) command);
+                break;
+            case Kind.DECLARATION_LIST:
+                visit((DeclarationList) command);
+                break;
+            case Kind.STATEMENT_LIST:
+                visit((StatementList) command);
+                break;
+            case Kind.ADDRESS_OF:
+                visit((AddressOf) command);
+                break;
+            case Kind.LITERAL_BOOL:
+                visit((LiteralBool) command);
+                break;
+            case Kind.LITERAL_FLOAT:
+                visit((LiteralFloat) command);
+                break;
+            case Kind.LITERAL_INT:
+                visit((LiteralInt) command);
+                break;
+            case Kind.VARIABLE_DECLARATION:
+                visit((VariableDeclaration) command);
+                break;
+            case Kind.ARRAY_DECLARATION:
+                visit((ArrayDeclaration) command);
+                break;
+            case Kind.FUNCTION_DEFINITION:
+                visit((FunctionDefinition) command);
+                break;
+            case Kind.ADDITION:
+                visit((Addition) command);
+                break;
+            case Kind.SUBTRACTION:
+                visit((Subtraction) command);
+                break;
+            case Kind.MULTIPLICATION:
+                visit((Multiplication) command);
+                break;
+            case Kind.DIVISION:
+                visit((Division) command);
+                break;
+            case Kind.LOGICAL_AND:
+                visit((LogicalAnd) command);
+                break;
+            case Kind.LOGICAL_OR:
+                visit((LogicalOr) command);
+                break;
+            case Kind.LOGICAL_NOT:
+                visit((LogicalNot) command);
+                break;
+            case Kind.COMPARISON:
+                visit((Comparison) command);
+                break;
+            case Kind.DEREFERENCE:
+                visit((Dereference) command);
+                break;
+            case Kind.INDEX:
+                visit((Index) command);
+                break;
+            case Kind.ASSIGNMENT:
+                visit((Assignment) command);
+                break;
+            case Kind.CALL:
+                visit((Call) command);
+                break;
+            case Kind.IF_ELSE_BRANCH:
+                visit((IfElseBranch) command);
+                break;
+            case Kind.WHILE_LOOP:
+                visit((WhileLoop) command);
+                break;
+            case Kind.RETURN:
+                visit((Return) command);
+                break;
+            case Kind.ERROR:
+                visit((Error) command);
+                break;
+            default:
+                throw new IllegalStateException("Unknown kind " + command.kind() + " of " + command);
+        }
+    }
+}
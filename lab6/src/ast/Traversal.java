@@ -0,0 +1,149 @@
+package ast;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+
+// Walks an expression with an explicit stack instead of the Java one, so
+// machine-generated expressions of any depth can be checked and compiled.
+// Each node is entered before its subexpressions and left after them, in
+// the order they are evaluated. Statements are not descended into.
+public class Traversal {
+
+    public interface Visitor {
+
+        void enter(Command node);
+
+        void leave(Command node);
+    }
+
+    private Command[] nodes = new Command[16];
+    private int[] next = new int[16];
+
+    public static void walk(Command root, Visitor visitor) {
+        new Traversal().run(root, visitor);
+    }
+
+    private void run(Command root, Visitor visitor) {
+        int depth = 0;
+        nodes[0] = root;
+        next[0] = 0;
+        visitor.enter(root);
+        while (depth >= 0) {
+            final Command node = nodes[depth];
+            final Command child = child(node, next[depth]++);
+            if (child == null) {
+                nodes[depth--] = null;
+                visitor.leave(node);
+            } else {
+                if (++depth == nodes.length) {
+                    nodes = Arrays.copyOf(nodes, depth * 2);
+                    next = Arrays.copyOf(next, depth * 2);
+                }
+                nodes[depth] = child;
+                next[depth] = 0;
+                visitor.enter(child);
+            }
+        }
+    }
+
+    // The largest id of root and of every node under it, statements
+    // included, for sizing an array indexed by id before it is filled
+    public static int maxId(Command root) {
+        int max = root.id();
+        final ArrayDeque<Command> pending = new ArrayDeque<>();
+        pending.push(root);
+        while (!pending.isEmpty()) {
+            final Command node = pending.pop();
+            Command child;
+            for (int i = 0; (child = treeChild(node, i)) != null; i++) {
+                max = Math.max(max, child.id());
+                pending.push(child);
+            }
+        }
+        return max;
+    }
+
+    // The i-th child of node, statements included, in the order the
+    // visitors take them, or null if it has no more
+    public static Command treeChild(Command node, int i) {
+        switch (node.kind()) {
+            case Kind.DECLARATION_LIST: {
+                final DeclarationList list = (DeclarationList) node;
+                return i < list.size() ? (Command) list.get(i) : null;
+            }
+            case Kind.STATEMENT_LIST: {
+                final StatementList list = (StatementList) node;
+                return i < list.size() ? (Command) list.get(i) : null;
+            }
+            case Kind.FUNCTION_DEFINITION:
+                return i == 0 ? ((FunctionDefinition) node).body() : null;
+            case Kind.ASSIGNMENT: {
+                final Assignment assignment = (Assignment) node;
+                return (Command) (i == 0 ? assignment.destination() : i == 1 ? assignment.source() : null);
+            }
+            case Kind.IF_ELSE_BRANCH: {
+                final IfElseBranch branch = (IfElseBranch) node;
+                return i == 0 ? (Command) branch.condition()
+                        : i == 1 ? branch.thenBlock() : i == 2 ? branch.elseBlock() : null;
+            }
+            case Kind.WHILE_LOOP: {
+                final WhileLoop loop = (WhileLoop) node;
+                return i == 0 ? (Command) loop.condition() : i == 1 ? loop.body() : null;
+            }
+            case Kind.RETURN:
+                return i == 0 ? (Command) ((Return) node).argument() : null;
+            default:
+                return child(node, i);
+        }
+    }
+
+    // The i-th subexpression of node, or null if it has no more
+    public static Command child(Command node, int i) {
+        switch (node.kind()) {
+            case Kind.EXPRESSION_LIST: {
+                final ExpressionList list = (ExpressionList) node;
+                return i < list.size() ? (Command) list.get(i) : null;
+            }
+            case Kind.CALL:
+                return i == 0 ? ((Call) node).arguments() : null;
+            case Kind.INDEX: {
+                final Index index = (Index) node;
+                return (Command) (i == 0 ? index.base() : i == 1 ? index.amount() : null);
+            }
+            case Kind.DEREFERENCE:
+                return i == 0 ? (Command) ((Dereference) node).expression() : null;
+            case Kind.LOGICAL_NOT:
+                return i == 0 ? (Command) ((LogicalNot) node).expression() : null;
+            case Kind.ADDITION: {
+                final Addition op = (Addition) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.SUBTRACTION: {
+                final Subtraction op = (Subtraction) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.MULTIPLICATION: {
+                final Multiplication op = (Multiplication) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.DIVISION: {
+                final Division op = (Division) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.LOGICAL_AND: {
+                final LogicalAnd op = (LogicalAnd) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.LOGICAL_OR: {
+                final LogicalOr op = (LogicalOr) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            case Kind.COMPARISON: {
+                final Comparison op = (Comparison) node;
+                return (Command) (i == 0 ? op.leftSide() : i == 1 ? op.rightSide() : null);
+            }
+            default:
+                return null;
+        }
+    }
+}
@@ -21,6 +21,11 @@ public class VariableDeclaration extends Command implements Declaration, Stateme
         return super.toString() + "[" + sym.toString() + "]";
     }
 
+    @Override
+    public int kind() {
+        return Kind.VARIABLE_DECLARATION;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
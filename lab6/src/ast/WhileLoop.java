@@ -19,6 +19,11 @@ public class WhileLoop extends Command implements Statement {
         return body;
     }
 
+    @Override
+    public int kind() {
+        return Kind.WHILE_LOOP;
+    }
+
     @Override
     public void accept(CommandVisitor visitor) {
         visitor.visit(this);
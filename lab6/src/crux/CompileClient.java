@@ -0,0 +1,143 @@
+package crux;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+// Stands in for crux.Compiler by sending the compile to a running
+// CompileServer. Output, diagnostics and exit status are the same as
+// compiling in-process. The server's token is read from its token file, so
+// only the user who started the server can talk to it.
+public class CompileClient implements AutoCloseable {
+
+    private final String token;
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+
+    public CompileClient(int port) throws IOException {
+        this.token = Files.readString(CompileServer.tokenFile(port)).trim();
+        this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        this.out = socket.getOutputStream();
+    }
+
+    // Compiles on the server and copies its diagnostics to stdout and stderr.
+    // Returns the status crux.Compiler.compile would have returned.
+    public int compile(String sourceFilename, String asmFilename, boolean check,
+                       PrintStream stdout, PrintStream stderr) throws IOException {
+        return compile(sourceFilename, asmFilename, check, Options.DEFAULT, stdout, stderr);
+    }
+
+    public int compile(String sourceFilename, String asmFilename, boolean check, Options options,
+                       PrintStream stdout, PrintStream stderr) throws IOException {
+        final String source = new File(sourceFilename).getAbsolutePath();
+        final String asm = new File(asmFilename).getAbsolutePath();
+        final StringBuilder request = new StringBuilder(token).append("\tcompile\t").append(source).append("\t").append(asm);
+        if (check) {
+            request.append("\t-check");
+        }
+        for (String flag : options.flags()) {
+            request.append("\t").append(flag);
+        }
+        out.write(request.append("\n").toString().getBytes(StandardCharsets.UTF_8));
+        out.flush();
+
+        final String[] header = readLine().split(" ");
+        final int status = Integer.parseInt(header[0]);
+        stdout.write(readBytes(Integer.parseInt(header[1])));
+        stderr.write(readBytes(Integer.parseInt(header[2])));
+        stdout.flush();
+        stderr.flush();
+        return status;
+    }
+
+    public void shutdownServer() throws IOException {
+        out.write((token + "\tshutdown\n").getBytes(StandardCharsets.UTF_8));
+        out.flush();
+    }
+
+    private String readLine() throws IOException {
+        final StringBuilder sb = new StringBuilder();
+        int c;
+        while ((c = in.read()) != '\n') {
+            if (c < 0) {
+                throw new IOException("Compile server closed the connection.");
+            }
+            sb.append((char) c);
+        }
+        return sb.toString();
+    }
+
+    private byte[] readBytes(int n) throws IOException {
+        final byte[] bytes = new byte[n];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        socket.close();
+    }
+
+    // Usage: crux.CompileClient [-port n] [-check] [-pipeline | -stream | -lazy | -fused] [-max-errors n] file.crx
+    //        crux.CompileClient [-port n] -shutdown
+    public static void main(String[] args) {
+        int port = CompileServer.DEFAULT_PORT;
+        boolean check = false;
+        boolean shutdown = false;
+        Options options = Options.DEFAULT;
+        String sourceFilename = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-port")) {
+                port = Integer.parseInt(args[++i]);
+            } else if (args[i].equals("-max-errors")) {
+                options = options.withMaxErrors(Integer.parseInt(args[++i]));
+            } else if (Options.Mode.of(args[i]) != null) {
+                try {
+                    options = options.withMode(Options.Mode.of(args[i]));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(-1);
+                }
+            } else if (args[i].equals("-check")) {
+                check = true;
+            } else if (args[i].equals("-shutdown")) {
+                shutdown = true;
+            } else {
+                sourceFilename = args[i];
+            }
+        }
+
+        if (!shutdown && sourceFilename == null) {
+            System.err.println("Usage: crux.CompileClient [-port n] [-check] [-pipeline | -stream | -lazy | -fused]"
+                    + " [-max-errors n] file.crx");
+            System.err.println("       crux.CompileClient [-port n] -shutdown");
+            System.exit(-1);
+        }
+
+        int status = 0;
+        try (CompileClient client = new CompileClient(port)) {
+            if (shutdown) {
+                client.shutdownServer();
+            } else {
+                String asmFilename = CompileServer.asmFilename(sourceFilename);
+                status = client.compile(sourceFilename, asmFilename, check, options, System.out, System.err);
+            }
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error talking to the compile server on port " + port);
+            System.exit(-8);
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
@@ -0,0 +1,223 @@
+package crux;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+// A compile daemon that keeps one warm JVM so each compile does not pay for
+// JVM startup and JIT warm-up. It listens on the loopback interface, and
+// each connection is served on a worker pool and may send any number of
+// requests, one per line, with tab separated fields:
+//
+//   <token> compile <source> <output> [-check] [-pipeline | -stream | -lazy | -fused] [-max-errors <n>]
+//   <token> shutdown
+//
+// The token is drawn afresh by each server and written to tokenFile(port),
+// which only its owner can read, so other local users cannot compile or
+// stop it. The output must be the source's own .asm sibling (see
+// asmFilename), so a request cannot write anywhere else. Paths should be
+// absolute, since they resolve against the server's working directory.
+// With -check the source is only parsed and type checked; the other flags
+// are those of crux.Compiler, and apply to this request only. A request
+// with a wrong token is refused and its connection closed. Each compile is
+// answered with a header line
+//
+//   <status> <stdout bytes> <stderr bytes>
+//
+// followed by the diagnostics crux.Compiler would have printed on stdout and
+// stderr, in UTF-8. A status of 0 means success; otherwise it is the exit
+// status of crux.Compiler, or -9 if the compiler itself failed, in which
+// case the stderr part holds the stack trace.
+public class CompileServer {
+
+    public static final int DEFAULT_PORT = 7142;
+
+    private final ServerSocket serverSocket;
+    private final ExecutorService workers;
+    private final byte[] token;
+    private final Path tokenFile;
+
+    public CompileServer(int port, int threads) throws IOException {
+        this.serverSocket = new ServerSocket(port, 50, InetAddress.getLoopbackAddress());
+        this.workers = Executors.newFixedThreadPool(threads);
+        final byte[] random = new byte[32];
+        new SecureRandom().nextBytes(random);
+        final String token = HexFormat.of().formatHex(random);
+        this.token = token.getBytes(StandardCharsets.UTF_8);
+        this.tokenFile = tokenFile(port());
+        try {
+            Files.deleteIfExists(tokenFile);
+            Files.createFile(tokenFile, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+            Files.writeString(tokenFile, token);
+        } catch (IOException e) {
+            serverSocket.close();
+            throw e;
+        }
+    }
+
+    // The file the token of the server on this port is written to
+    public static Path tokenFile(int port) {
+        return Paths.get(System.getProperty("user.home"), ".crux-server-" + port);
+    }
+
+    // The output a compile of this source must write to
+    public static String asmFilename(String sourceFilename) {
+        final String base = sourceFilename.endsWith(".crx")
+                ? sourceFilename.substring(0, sourceFilename.length() - ".crx".length())
+                : sourceFilename;
+        return base + ".asm";
+    }
+
+    public int port() {
+        return serverSocket.getLocalPort();
+    }
+
+    // Serves connections until a shutdown request arrives
+    public void serve() {
+        try {
+            while (true) {
+                final Socket socket = serverSocket.accept();
+                workers.execute(() -> handle(socket));
+            }
+        } catch (IOException e) {
+            // the server socket was closed by shutdown
+        } finally {
+            workers.shutdown();
+            try {
+                Files.deleteIfExists(tokenFile);
+            } catch (IOException e) {
+                // left for the next server on this port to replace
+            }
+        }
+    }
+
+    public void shutdown() {
+        try {
+            serverSocket.close();
+        } catch (IOException e) {
+            // already closed
+        }
+    }
+
+    private void handle(Socket socket) {
+        try (Socket s = socket) {
+            final BufferedReader in = new BufferedReader(
+                    new InputStreamReader(s.getInputStream(), StandardCharsets.UTF_8));
+            final OutputStream out = s.getOutputStream();
+
+            String line;
+            while ((line = in.readLine()) != null) {
+                final int tab = line.indexOf('\t');
+                if (tab < 0 || !MessageDigest.isEqual(token, line.substring(0, tab).getBytes(StandardCharsets.UTF_8))) {
+                    refuse(out, "Wrong token.");
+                    out.flush();
+                    return;
+                }
+                final String[] fields = line.substring(tab + 1).split("\t");
+                if (fields[0].equals("shutdown")) {
+                    shutdown();
+                    return;
+                }
+                final Options options = fields[0].equals("compile") && fields.length >= 3 ? options(fields) : null;
+                if (options == null) {
+                    refuse(out, "Malformed request: " + String.join(" ", fields));
+                } else if (Arrays.asList(fields).subList(3, fields.length).contains("-check")) {
+                    respond(out, fields[1], null, options);
+                } else if (!sameFile(fields[2], asmFilename(fields[1]))) {
+                    refuse(out, "Output must be " + asmFilename(fields[1]) + ": " + fields[2]);
+                } else {
+                    respond(out, fields[1], fields[2], options);
+                }
+                out.flush();
+            }
+        } catch (SocketException e) {
+            // the client went away
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+
+    // The options of a compile request, or null if its flags are malformed
+    private static Options options(String[] fields) {
+        Options options = Options.DEFAULT;
+        try {
+            for (int i = 3; i < fields.length; i++) {
+                if (fields[i].equals("-max-errors") && i + 1 < fields.length) {
+                    options = options.withMaxErrors(Integer.parseInt(fields[++i]));
+                } else if (Options.Mode.of(fields[i]) != null) {
+                    options = options.withMode(Options.Mode.of(fields[i]));
+                } else if (!fields[i].equals("-check")) {
+                    return null;
+                }
+            }
+        } catch (IllegalArgumentException e) {
+            return null;
+        }
+        return options;
+    }
+
+    private static boolean sameFile(String a, String b) {
+        return Paths.get(a).toAbsolutePath().normalize().equals(Paths.get(b).toAbsolutePath().normalize());
+    }
+
+    private static void refuse(OutputStream out, String reason) throws IOException {
+        final byte[] message = (reason + "\n").getBytes(StandardCharsets.UTF_8);
+        out.write(("-1 0 " + message.length + "\n").getBytes(StandardCharsets.UTF_8));
+        out.write(message);
+    }
+
+    private static void respond(OutputStream out, String sourceFilename, String asmFilename, Options options)
+            throws IOException {
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        int status;
+        try (PrintStream o = new PrintStream(stdout, true, "UTF-8");
+             PrintStream e = new PrintStream(stderr, true, "UTF-8")) {
+            try {
+                status = Compiler.compile(sourceFilename, asmFilename, o, e, options);
+            } catch (RuntimeException x) {
+                // answer anyway, so the client is not left reading EOF
+                x.printStackTrace(e);
+                e.println("Error compiling file \"" + sourceFilename + "\": internal compiler error");
+                status = -9;
+            }
+        }
+        out.write((status + " " + stdout.size() + " " + stderr.size() + "\n").getBytes(StandardCharsets.UTF_8));
+        stdout.writeTo(out);
+        stderr.writeTo(out);
+    }
+
+    // Usage: crux.CompileServer [port [threads]]
+    public static void main(String[] args) {
+        final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+        final int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+
+        try {
+            final CompileServer server = new CompileServer(port, threads);
+            System.err.println("crux compile server listening on port " + server.port());
+            server.serve();
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error starting the compile server on port " + port);
+            System.exit(-8);
+        }
+    }
+}
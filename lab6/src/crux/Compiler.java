@@ -1,13 +1,26 @@
 package crux;
 
 import mips.CodeGen;
+import mips.FusedCodeGen;
 import mips.Program;
 import types.TypeChecker;
 
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
 import java.io.PrintStream;
+import java.io.UnsupportedEncodingException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 public class Compiler {
 
@@ -15,43 +28,314 @@ public class Compiler {
     public static String studentID = "16602518";
     public static String uciNetID = "dparajul";
 
+    // part of every ResultCache key; bump when the output of any phase changes
+    public static final String VERSION = "lab6-1";
+
+    // With -j, a source at least this large is scanned by ParallelScanner
+    // and its bodies parsed with Parser.parse(int). Its first pass holds
+    // every token and parses the declarations twice, which costs about a
+    // third more than parse() on one core, so smaller sources, and any
+    // machine with one core, are parsed serially.
+    private static final long PARALLEL_PARSE_SIZE = 1 << 20;
+
+    // Usage: crux.Compiler file.crx
+    //        crux.Compiler [-j threads] [-max-errors n] [-cache dir [-cache-size MB]]
+    //                      [-pipeline | -stream | -lazy | -fused] (file.crx | directory)...
+    // A single file compiles as it always has, and with -j its function
+    // bodies are type checked and generated on that many threads (see
+    // CodeGen(TypeChecker, int)), and a source of a megabyte or more is also
+    // scanned and parsed on them (see Parser.parse(int)). Several files, or any
+    // directory (searched recursively for .crx files), compile as a batch,
+    // -j files at a time.
+    // With -cache, results are looked up in and stored to a ResultCache.
+    // Each phase reports at most -max-errors errors (100 by default).
+    // At most one mode may be given (see Options.Mode): with -pipeline, the
+    // phases of each file run at once (see Pipeline). With -stream, each
+    // file is compiled in bounded memory, a declaration at a time (see
+    // StreamingCompiler). With -lazy, only the bodies of the functions main
+    // can reach are parsed, checked and generated, though every signature is
+    // still checked (see Parser.parseReachable). With -fused, each file is
+    // checked and generated in one pass (see mips.FusedCodeGen).
     public static void main(String[] args) {
-        String sourceFilename = args[0];
+        int threads = Runtime.getRuntime().availableProcessors();
+        String cacheDir = null;
+        long cacheSize = 256;
+        Options options = Options.DEFAULT;
+        final List<String> sources = new ArrayList<>();
+        boolean batch = false;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-j")) {
+                threads = Integer.parseInt(args[++i]);
+                options = options.withThreads(threads);
+            } else if (args[i].equals("-max-errors")) {
+                options = options.withMaxErrors(Integer.parseInt(args[++i]));
+            } else if (args[i].equals("-cache")) {
+                cacheDir = args[++i];
+            } else if (args[i].equals("-cache-size")) {
+                cacheSize = Long.parseLong(args[++i]);
+            } else if (Options.Mode.of(args[i]) != null) {
+                try {
+                    options = options.withMode(Options.Mode.of(args[i]));
+                } catch (IllegalArgumentException e) {
+                    System.err.println(e.getMessage());
+                    System.exit(-1);
+                }
+            } else if (new File(args[i]).isDirectory()) {
+                batch = true;
+                try (Stream<Path> files = Files.walk(Paths.get(args[i]))) {
+                    sources.addAll(files.map(Path::toString)
+                            .filter(f -> f.endsWith(".crx"))
+                            .sorted()
+                            .collect(Collectors.toList()));
+                } catch (IOException e) {
+                    e.printStackTrace();
+                    System.err.println("Error accessing the source directory: \"" + args[i] + "\"");
+                    System.exit(-2);
+                }
+            } else {
+                sources.add(args[i]);
+            }
+        }
+
+        if (sources.isEmpty() && !batch) {
+            System.err.println("Usage: crux.Compiler file.crx");
+            System.err.println("       crux.Compiler [-j threads] [-max-errors n] [-cache dir [-cache-size MB]]");
+            System.err.println("                     [-pipeline | -stream | -lazy | -fused] (file.crx | directory)...");
+            System.exit(-1);
+        }
+
+        final ResultCache cache = cacheDir == null ? null : new ResultCache(Paths.get(cacheDir), cacheSize << 20);
+
+        int status;
+        if (batch || sources.size() > 1) {
+            status = compileAll(sources, threads, System.out, cache, options.withThreads(1));
+        } else {
+            String sourceFilename = sources.get(0);
+            String asmFilename = sourceFilename.replace(".crx", ".asm");
+            status = compile(sourceFilename, asmFilename, System.out, System.err, cache, options);
+        }
+        if (cache != null) {
+            final long hits = cache.hits();
+            final long misses = cache.misses();
+            final long[] totals = cache.recordStatistics();
+            System.err.println("cache: " + hits + " hits, " + misses + " misses (" + totals[0] + " hits, "
+                    + totals[1] + " misses in total)");
+        }
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+
+    // Compiles every source on a pool of worker threads, writing each .asm
+    // next to its source. Each file's status and diagnostics are reported to
+    // out in the order given, whether or not earlier files failed. Returns 0
+    // if all compiled, or else the status of the first failure.
+    public static int compileAll(List<String> sourceFilenames, int threads, PrintStream out) {
+        return compileAll(sourceFilenames, threads, out, null);
+    }
+
+    public static int compileAll(List<String> sourceFilenames, int threads, PrintStream out, ResultCache cache) {
+        return compileAll(sourceFilenames, threads, out, cache, Options.DEFAULT);
+    }
+
+    public static int compileAll(List<String> sourceFilenames, int threads, PrintStream out, ResultCache cache,
+                                 Options options) {
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            final List<ForkJoinTask<String>> reports = new ArrayList<>();
+            final int[] statuses = new int[sourceFilenames.size()];
+            for (int i = 0; i < sourceFilenames.size(); i++) {
+                final int index = i;
+                final String sourceFilename = sourceFilenames.get(i);
+                reports.add(pool.submit(() -> {
+                    final ByteArrayOutputStream diagnostics = new ByteArrayOutputStream();
+                    try (PrintStream ps = new PrintStream(diagnostics, true, "UTF-8")) {
+                        statuses[index] = compile(sourceFilename, sourceFilename.replace(".crx", ".asm"), ps, ps,
+                                cache, options);
+                    }
+                    return diagnostics.toString("UTF-8");
+                }));
+            }
+
+            int status = 0;
+            int failed = 0;
+            for (int i = 0; i < sourceFilenames.size(); i++) {
+                final String report = reports.get(i).join();
+                if (statuses[i] == 0) {
+                    out.println(sourceFilenames.get(i) + ": OK");
+                } else {
+                    out.println(sourceFilenames.get(i) + ": FAILED (" + statuses[i] + ")");
+                    if (failed++ == 0) {
+                        status = statuses[i];
+                    }
+                }
+                out.print(report);
+            }
+            out.println((sourceFilenames.size() - failed) + " of " + sourceFilenames.size() + " files compiled");
+            return status;
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    // Compiles one source file through a ResultCache, which may be null. On a
+    // hit no phase runs: the cached diagnostics are replayed and the cached
+    // assembly is written. Diagnostics name the source file, so they are
+    // stored with the name replaced and restored on replay.
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err,
+                              ResultCache cache) {
+        return compile(sourceFilename, asmFilename, out, err, cache, Options.DEFAULT);
+    }
+
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err,
+                              ResultCache cache, Options options) {
+        if (cache == null) {
+            return compile(sourceFilename, asmFilename, out, err, options);
+        }
+        final byte[] source;
+        try {
+            source = Files.readAllBytes(Paths.get(sourceFilename));
+        } catch (IOException e) {
+            return compile(sourceFilename, asmFilename, out, err, options);
+        }
+
+        final String key = cache.key(source, options.key(asmFilename != null));
+        final ResultCache.Result hit = cache.lookup(key);
+        if (hit != null) {
+            out.print(restore(hit.stdout(), sourceFilename));
+            err.print(restore(hit.stderr(), sourceFilename));
+            if (hit.status() == 0 && asmFilename != null) {
+                try {
+                    Files.write(Paths.get(asmFilename), hit.asm());
+                } catch (IOException e) {
+                    e.printStackTrace(err);
+                    err.println("Error writing assembly file: \"" + asmFilename + "\"");
+                    return -6;
+                }
+            }
+            return hit.status();
+        }
 
-        Scanner s = null;
+        final ByteArrayOutputStream stdout = new ByteArrayOutputStream();
+        final ByteArrayOutputStream stderr = new ByteArrayOutputStream();
+        final int status;
+        try (PrintStream o = new PrintStream(stdout, true, "UTF-8");
+             PrintStream e = new PrintStream(stderr, true, "UTF-8")) {
+            status = compile(sourceFilename, asmFilename, o, e, options);
+        } catch (UnsupportedEncodingException e) {
+            throw new IllegalStateException(e);
+        }
+        out.print(stdout.toString(StandardCharsets.UTF_8));
+        err.print(stderr.toString(StandardCharsets.UTF_8));
+
+        // failures to read or write files are not a property of the source
+        if (status != -2 && status != -6) {
+            try {
+                final byte[] asm = status == 0 && asmFilename != null
+                        ? Files.readAllBytes(Paths.get(asmFilename))
+                        : new byte[0];
+                cache.store(key, new ResultCache.Result(status, strip(stdout, sourceFilename),
+                        strip(stderr, sourceFilename), asm));
+            } catch (IOException e) {
+                // not cached
+            }
+        }
+        return status;
+    }
+
+    private static final String SOURCE_NAME = "\0source\0";
+
+    private static byte[] strip(ByteArrayOutputStream diagnostics, String sourceFilename) {
+        return diagnostics.toString(StandardCharsets.UTF_8).replace(sourceFilename, SOURCE_NAME)
+                .getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static String restore(byte[] diagnostics, String sourceFilename) {
+        return new String(diagnostics, StandardCharsets.UTF_8).replace(SOURCE_NAME, sourceFilename);
+    }
+
+    // Compiles one source file, writing diagnostics to out and err instead of
+    // exiting. Returns 0 on success or the exit status main would use. With a
+    // null asmFilename the file is only checked and no assembly is written.
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err) {
+        return compile(sourceFilename, asmFilename, out, err, Options.DEFAULT);
+    }
+
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err,
+                              Options options) {
+        if (options.mode() == Options.Mode.PIPELINE) {
+            return Pipeline.compile(sourceFilename, asmFilename, out, err, options);
+        }
+        if (options.mode() == Options.Mode.STREAM) {
+            return StreamingCompiler.compile(sourceFilename, asmFilename, out, err, options);
+        }
+        // -fused only changes a compile that generates code
+        final boolean fused = options.mode() == Options.Mode.FUSED && asmFilename != null;
+        final int parseThreads = Math.min(options.threads(), Runtime.getRuntime().availableProcessors());
+
+        TokenSource s = null;
         try {
-            s = new Scanner(new FileReader(sourceFilename));
+            if (parseThreads > 1 && new File(sourceFilename).length() >= PARALLEL_PARSE_SIZE) {
+                s = ParallelScanner.read(sourceFilename, parseThreads);
+            } else {
+                s = new Scanner(new FileReader(sourceFilename));
+            }
         } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Error accessing the source file: \"" + sourceFilename + "\"");
-            System.exit(-2);
+            e.printStackTrace(err);
+            err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            return -2;
         }
 
         Parser p = new Parser(s);
-        ast.Command syntaxTree = p.parse();
+        p.setMaxErrors(options.maxErrors());
+        ast.Command syntaxTree;
+        if (options.mode() == Options.Mode.LAZY) {
+            syntaxTree = p.parseReachable();
+        } else {
+            syntaxTree = s instanceof ParallelScanner ? p.parse(parseThreads) : p.parse();
+        }
         if (p.hasError()) {
-            System.out.println("Error parsing file " + sourceFilename);
-            System.out.println(p.errorReport());
-            System.exit(-3);
+            out.println("Error parsing file " + sourceFilename);
+            out.println(p.errorReport());
+            return -3;
         }
 
-        TypeChecker tc = new TypeChecker();
-        tc.check(syntaxTree);
+        // the fused pass generates as it checks, so it stays on one thread
+        TypeChecker tc = new TypeChecker(fused ? 1 : options.threads());
+        tc.setMaxErrors(options.maxErrors());
+        CodeGen cg;
+        if (fused) {
+            cg = new FusedCodeGen(tc);
+        } else if (options.threads() > 1) {
+            cg = new CodeGen(tc, options.threads());
+        } else {
+            cg = new CodeGen(tc);
+        }
+        cg.setMaxErrors(options.maxErrors());
+        if (fused) {
+            cg.generate(syntaxTree);
+        } else {
+            tc.check(syntaxTree);
+        }
         if (tc.hasError()) {
-            System.out.println("Error type-checking file " + sourceFilename);
-            System.out.println(tc.errorReport());
-            System.exit(-4);
+            out.println("Error type-checking file " + sourceFilename);
+            out.println(tc.errorReport());
+            return -4;
         }
 
-        CodeGen cg = new CodeGen(tc);
-        cg.generate(syntaxTree);
+        if (asmFilename == null) {
+            return 0;
+        }
+
+        if (!fused) {
+            cg.generate(syntaxTree);
+        }
         if (cg.hasError()) {
-            System.out.println("Error generating code for file " + sourceFilename);
-            System.out.println(cg.errorReport());
-            System.exit(-5);
+            out.println("Error generating code for file " + sourceFilename);
+            out.println(cg.errorReport());
+            return -5;
         }
 
-        String asmFilename = sourceFilename.replace(".crx", ".asm");
         try {
             Program prog = cg.getProgram();
             File asmFile = new File(asmFilename);
@@ -59,10 +343,10 @@ public class Compiler {
             prog.print(ps);
             ps.close();
         } catch (IOException e) {
-            e.printStackTrace();
-            System.err.println("Error writing assembly file: \"" + asmFilename + "\"");
-            System.exit(-6);
+            e.printStackTrace(err);
+            err.println("Error writing assembly file: \"" + asmFilename + "\"");
+            return -6;
         }
+        return 0;
     }
 }
-    
@@ -0,0 +1,141 @@
+package crux;
+
+import types.ErrorType;
+
+import java.util.Arrays;
+
+// Collects the errors of one phase. Each error is stored as a code, a
+// position and up to two arguments, and its text is only built when the
+// report is read, so a phase that finds thousands of errors does not spend
+// its time formatting them. At most maxErrors are kept; the rest are only
+// counted.
+//
+// A Diagnostics is not thread-safe: parallel workers each collect their
+// own and the results are merged in order with addAll.
+public class Diagnostics {
+
+    public enum Code {
+        EXPECTED_TOKEN("SyntaxError"),
+        EXPECTED_NON_TERMINAL("SyntaxError"),
+        RESOLVE_SYMBOL("ResolveSymbolError"),
+        DECLARE_SYMBOL("DeclareSymbolError"),
+        TYPE("TypeError"),
+        // a complete message, reported as is
+        MESSAGE(null);
+
+        private final String kind;
+
+        Code(String kind) {
+            this.kind = kind;
+        }
+    }
+
+    // the limit of diagnostics created without one
+    public static final int DEFAULT_MAX_ERRORS = 100;
+
+    private final int maxErrors;
+    private Code[] codes = new Code[4];
+    private int[] lineNums = new int[4];
+    private int[] charPositions = new int[4];
+    private Object[] firsts = new Object[4];
+    private Object[] seconds = new Object[4];
+    private int count;
+    private int dropped;
+
+    public Diagnostics() {
+        this(DEFAULT_MAX_ERRORS);
+    }
+
+    public Diagnostics(int maxErrors) {
+        this.maxErrors = maxErrors;
+    }
+
+    public int maxErrors() {
+        return maxErrors;
+    }
+
+    public void report(Code code, int lineNum, int charPos, Object first) {
+        report(code, lineNum, charPos, first, null);
+    }
+
+    public void report(Code code, int lineNum, int charPos, Object first, Object second) {
+        if (count == maxErrors) {
+            dropped++;
+            return;
+        }
+        if (count == codes.length) {
+            final int capacity = count * 2;
+            codes = Arrays.copyOf(codes, capacity);
+            lineNums = Arrays.copyOf(lineNums, capacity);
+            charPositions = Arrays.copyOf(charPositions, capacity);
+            firsts = Arrays.copyOf(firsts, capacity);
+            seconds = Arrays.copyOf(seconds, capacity);
+        }
+        codes[count] = code;
+        lineNums[count] = lineNum;
+        charPositions[count] = charPos;
+        firsts[count] = first;
+        seconds[count] = second;
+        count++;
+    }
+
+    public void addAll(Diagnostics that) {
+        for (int i = 0; i < that.count; i++) {
+            report(that.codes[i], that.lineNums[i], that.charPositions[i], that.firsts[i], that.seconds[i]);
+        }
+        dropped += that.dropped;
+    }
+
+    public boolean hasError() {
+        return count + dropped != 0;
+    }
+
+    // All errors, including those past the limit
+    public int errorCount() {
+        return count + dropped;
+    }
+
+    public String report() {
+        final StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (codes[i] == Code.MESSAGE) {
+                sb.append(firsts[i]);
+                continue;
+            }
+            sb.append(header(codes[i], lineNums[i], charPositions[i], firsts[i], seconds[i])).append("\n");
+            if (codes[i] == Code.RESOLVE_SYMBOL || codes[i] == Code.DECLARE_SYMBOL) {
+                sb.append(seconds[i]).append("\n");
+            }
+        }
+        if (dropped != 0) {
+            sb.append(dropped).append(dropped == 1 ? " more error" : " more errors").append(" not shown.\n");
+        }
+        return sb.toString();
+    }
+
+    // The first line of an error, as in "SyntaxError(3,7)[Expected SEMICOLON but got IDENTIFIER.]"
+    public static String header(Code code, int lineNum, int charPos, Object first, Object second) {
+        return code.kind + "(" + lineNum + "," + charPos + ")[" + message(code, first, second) + "]";
+    }
+
+    private static String message(Code code, Object first, Object second) {
+        switch (code) {
+            case EXPECTED_TOKEN:
+                return "Expected " + name(first) + " but got " + name(second) + ".";
+            case EXPECTED_NON_TERMINAL:
+                return "Expected a token from " + name(first) + " but got " + name(second) + ".";
+            case RESOLVE_SYMBOL:
+                return "Could not find " + first + ".";
+            case DECLARE_SYMBOL:
+                return first + " already exists.";
+            case TYPE:
+                return first instanceof ErrorType ? ((ErrorType) first).getMessage() : String.valueOf(first);
+            default:
+                return String.valueOf(first);
+        }
+    }
+
+    private static String name(Object value) {
+        return value instanceof Enum ? ((Enum<?>) value).name() : String.valueOf(value);
+    }
+}
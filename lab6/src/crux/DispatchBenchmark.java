@@ -0,0 +1,115 @@
+package crux;
+
+import ast.Command;
+import ast.Declaration;
+import ast.DeclarationList;
+import ast.Fingerprint;
+import ast.PrettyPrinter;
+import ast.Visitable;
+import mips.CodeGen;
+import types.TypeChecker;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+// Compares the TypeChecker and CodeGen passes dispatching through their
+// SwitchVisitor switch with the same passes dispatching through accept().
+// Every tree is also pretty printed and fingerprinted first, so accept()
+// has seen several visitors, as it has in a long-running CompileServer.
+// Rounds of the two alternate, after warming up, and the median is kept.
+//
+// Usage: crux.DispatchBenchmark [-rounds n] file.crx...
+public class DispatchBenchmark {
+
+    // The passes as they were before SwitchVisitor
+    private static class AcceptTypeChecker extends TypeChecker {
+        @Override
+        protected void dispatch(Visitable node) {
+            node.accept(this);
+        }
+    }
+
+    private static class AcceptCodeGen extends CodeGen {
+        AcceptCodeGen(TypeChecker tc) {
+            super(tc);
+        }
+
+        @Override
+        protected void dispatch(Visitable node) {
+            node.accept(this);
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        int rounds = 20;
+        final List<Command> trees = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-rounds")) {
+                rounds = Integer.parseInt(args[++i]);
+                continue;
+            }
+            final Parser p = new Parser(new Scanner(new FileReader(args[i])));
+            final Command tree = p.parse();
+            if (p.hasError() || !new TypeChecker().check(tree)) {
+                System.err.println("Skipping " + args[i] + ", which does not compile");
+                continue;
+            }
+            trees.add(tree);
+        }
+        if (trees.isEmpty()) {
+            System.err.println("Usage: crux.DispatchBenchmark [-rounds n] file.crx...");
+            System.exit(-1);
+        }
+
+        for (Command tree : trees) {
+            tree.accept(new PrettyPrinter());
+            for (Declaration declaration : (DeclarationList) tree) {
+                Fingerprint.of(declaration, "");
+            }
+        }
+
+        // [pass][round], the passes being check and generate
+        final long[][] switched = new long[2][rounds];
+        final long[][] accepted = new long[2][rounds];
+        for (int round = -rounds; round < rounds; round++) {
+            final long[] s = run(trees, false);
+            final long[] a = run(trees, true);
+            for (int pass = 0; round >= 0 && pass < 2; pass++) {
+                switched[pass][round] = s[pass];
+                accepted[pass][round] = a[pass];
+            }
+        }
+        System.out.println("median of " + rounds + " rounds over " + trees.size() + " files:");
+        final String[] passes = {"check", "generate"};
+        for (int pass = 0; pass < 2; pass++) {
+            Arrays.sort(switched[pass]);
+            Arrays.sort(accepted[pass]);
+            final long s = switched[pass][rounds / 2];
+            final long a = accepted[pass][rounds / 2];
+            System.out.println(String.format("%-8s switch: %9.3f ms, accept: %9.3f ms, switch/accept: %.1f%%",
+                    passes[pass], s / 1e6, a / 1e6, 100.0 * s / a));
+        }
+    }
+
+    // Nanoseconds to check and to generate every tree
+    private static long[] run(List<Command> trees, boolean accept) {
+        final long[] nanos = new long[2];
+        for (Command tree : trees) {
+            final long start = System.nanoTime();
+            final TypeChecker tc = accept ? new AcceptTypeChecker() : new TypeChecker();
+            tc.check(tree);
+            final long checked = System.nanoTime();
+            final CodeGen cg = accept ? new AcceptCodeGen(tc) : new CodeGen(tc);
+            cg.generate(tree);
+            nanos[0] += checked - start;
+            nanos[1] += System.nanoTime() - checked;
+            if (tc.hasError() || cg.hasError()) {
+                throw new IllegalStateException("A tree stopped compiling");
+            }
+        }
+        return nanos;
+    }
+}
@@ -0,0 +1,284 @@
+package crux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// Computes the FIRST and FOLLOW sets and the predict tables of the
+// NonTerminal rules. A rule is written in the EBNF of the comments in
+// Parser, with Token.Kind and NonTerminal names for symbols:
+//
+//     rule        := alternative { "|" alternative } .
+//     alternative := { symbol | "[" rule "]" | "{" rule "}" } .
+//
+// Sets are long bitmasks indexed by Token.Kind.ordinal().
+class Grammar {
+
+    // Rules ===========================================
+
+    private abstract static class Node {
+    }
+
+    private static class Terminal extends Node {
+        final Token.Kind kind;
+
+        Terminal(Token.Kind kind) {
+            this.kind = kind;
+        }
+    }
+
+    private static class Reference extends Node {
+        final NonTerminal nt;
+
+        Reference(NonTerminal nt) {
+            this.nt = nt;
+        }
+    }
+
+    private static class Sequence extends Node {
+        final List<Node> items = new ArrayList<>();
+    }
+
+    private static class Choice extends Node {
+        final List<Node> alternatives = new ArrayList<>();
+    }
+
+    private static class Optional extends Node {
+        final Node body;
+
+        Optional(Node body) {
+            this.body = body;
+        }
+    }
+
+    private static class Repetition extends Node {
+        final Node body;
+
+        Repetition(Node body) {
+            this.body = body;
+        }
+    }
+
+    private final NonTerminal[] nts = NonTerminal.values();
+    private final Node[] rules = new Node[nts.length];
+    private final boolean[] nullable = new boolean[nts.length];
+    private final long[] first = new long[nts.length];
+    private final long[] follow = new long[nts.length];
+
+    Grammar() {
+        if (Token.Kind.values().length > Long.SIZE) {
+            throw new IllegalStateException("Too many token kinds for a long bitmask");
+        }
+        for (NonTerminal nt : nts) {
+            final String[] words = nt.rule().trim().split("\\s+");
+            final int[] at = {0};
+            rules[nt.ordinal()] = parseChoice(words, at);
+            if (at[0] != words.length) {
+                throw new IllegalStateException("Unexpected " + words[at[0]] + " in the rule for " + nt);
+            }
+        }
+        computeFirst();
+        computeFollow();
+    }
+
+    private Node parseChoice(String[] words, int[] at) {
+        final Choice choice = new Choice();
+        choice.alternatives.add(parseSequence(words, at));
+        while (at[0] < words.length && words[at[0]].equals("|")) {
+            at[0]++;
+            choice.alternatives.add(parseSequence(words, at));
+        }
+        return choice.alternatives.size() == 1 ? choice.alternatives.get(0) : choice;
+    }
+
+    private Node parseSequence(String[] words, int[] at) {
+        final Sequence sequence = new Sequence();
+        while (at[0] < words.length && !words[at[0]].isEmpty()) {
+            final String word = words[at[0]];
+            if (word.equals("|") || word.equals("]") || word.equals("}")) {
+                break;
+            }
+            at[0]++;
+            if (word.equals("[")) {
+                sequence.items.add(new Optional(parseChoice(words, at)));
+                expect(words, at, "]");
+            } else if (word.equals("{")) {
+                sequence.items.add(new Repetition(parseChoice(words, at)));
+                expect(words, at, "}");
+            } else if (isNonTerminal(word)) {
+                sequence.items.add(new Reference(NonTerminal.valueOf(word)));
+            } else {
+                sequence.items.add(new Terminal(Token.Kind.valueOf(word)));
+            }
+        }
+        return sequence.items.size() == 1 ? sequence.items.get(0) : sequence;
+    }
+
+    private static void expect(String[] words, int[] at, String word) {
+        if (at[0] == words.length || !words[at[0]].equals(word)) {
+            throw new IllegalStateException("Expected " + word + " in a grammar rule");
+        }
+        at[0]++;
+    }
+
+    private static boolean isNonTerminal(String word) {
+        for (NonTerminal nt : NonTerminal.values()) {
+            if (nt.name().equals(word)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // FIRST and FOLLOW ================================
+
+    private void computeFirst() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < nts.length; i++) {
+                final long f = first(rules[i]);
+                final boolean n = nullable(rules[i]);
+                if (f != first[i] || n != nullable[i]) {
+                    first[i] = f;
+                    nullable[i] = n;
+                    changed = true;
+                }
+            }
+        }
+    }
+
+    private long first(Node node) {
+        if (node instanceof Terminal) {
+            return 1L << ((Terminal) node).kind.ordinal();
+        } else if (node instanceof Reference) {
+            return first[((Reference) node).nt.ordinal()];
+        } else if (node instanceof Sequence) {
+            long f = 0;
+            for (Node item : ((Sequence) node).items) {
+                f |= first(item);
+                if (!nullable(item)) {
+                    break;
+                }
+            }
+            return f;
+        } else if (node instanceof Choice) {
+            long f = 0;
+            for (Node alternative : ((Choice) node).alternatives) {
+                f |= first(alternative);
+            }
+            return f;
+        } else if (node instanceof Optional) {
+            return first(((Optional) node).body);
+        } else {
+            return first(((Repetition) node).body);
+        }
+    }
+
+    private boolean nullable(Node node) {
+        if (node instanceof Terminal) {
+            return false;
+        } else if (node instanceof Reference) {
+            return nullable[((Reference) node).nt.ordinal()];
+        } else if (node instanceof Sequence) {
+            for (Node item : ((Sequence) node).items) {
+                if (!nullable(item)) {
+                    return false;
+                }
+            }
+            return true;
+        } else if (node instanceof Choice) {
+            for (Node alternative : ((Choice) node).alternatives) {
+                if (nullable(alternative)) {
+                    return true;
+                }
+            }
+            return false;
+        } else {
+            return true;
+        }
+    }
+
+    private void computeFollow() {
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int i = 0; i < nts.length; i++) {
+                changed |= follow(rules[i], follow[i]);
+            }
+        }
+    }
+
+    // Adds the tokens that can come after node to the FOLLOW sets of the
+    // NonTerminals in it, given the tokens that can follow node itself
+    private boolean follow(Node node, long after) {
+        if (node instanceof Reference) {
+            final int i = ((Reference) node).nt.ordinal();
+            final long f = follow[i] | after;
+            final boolean changed = f != follow[i];
+            follow[i] = f;
+            return changed;
+        } else if (node instanceof Sequence) {
+            final List<Node> items = ((Sequence) node).items;
+            boolean changed = false;
+            for (int i = items.size() - 1; i >= 0; i--) {
+                final Node item = items.get(i);
+                changed |= follow(item, after);
+                after = nullable(item) ? first(item) | after : first(item);
+            }
+            return changed;
+        } else if (node instanceof Choice) {
+            boolean changed = false;
+            for (Node alternative : ((Choice) node).alternatives) {
+                changed |= follow(alternative, after);
+            }
+            return changed;
+        } else if (node instanceof Optional) {
+            return follow(((Optional) node).body, after);
+        } else if (node instanceof Repetition) {
+            final Node body = ((Repetition) node).body;
+            return follow(body, after | first(body));
+        }
+        return false;
+    }
+
+    long first(NonTerminal nt) {
+        return first[nt.ordinal()];
+    }
+
+    long follow(NonTerminal nt) {
+        return follow[nt.ordinal()];
+    }
+
+    // Predict Tables ==================================
+
+    // For a rule whose alternatives are all NonTerminals, the alternative
+    // to parse on each Token.Kind, or null where none applies. Fails if the
+    // alternatives are not LL(1).
+    NonTerminal[] predict(NonTerminal nt) {
+        final Node rule = rules[nt.ordinal()];
+        if (!(rule instanceof Choice)) {
+            return null;
+        }
+        final NonTerminal[] table = new NonTerminal[Token.Kind.values().length];
+        for (Node alternative : ((Choice) rule).alternatives) {
+            if (!(alternative instanceof Reference)) {
+                return null;
+            }
+            final NonTerminal choice = ((Reference) alternative).nt;
+            long predicts = first(alternative);
+            if (nullable(alternative)) {
+                predicts |= follow(nt);
+            }
+            for (Token.Kind kind : Token.Kind.values()) {
+                if ((predicts >>> kind.ordinal() & 1) != 0) {
+                    if (table[kind.ordinal()] != null) {
+                        throw new IllegalStateException(nt + " is not LL(1): " + table[kind.ordinal()]
+                                + " and " + choice + " both start with " + kind.name());
+                    }
+                    table[kind.ordinal()] = choice;
+                }
+            }
+        }
+        return table;
+    }
+}
@@ -0,0 +1,210 @@
+package crux;
+
+import ast.Declaration;
+import ast.DeclarationList;
+import ast.Fingerprint;
+import ast.FunctionDefinition;
+import mips.CodeGen;
+import mips.Program;
+import types.TypeChecker;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Recompiles a source file reusing the code of every function that has not
+// changed since it was last compiled. Each top-level function is keyed by
+// its ast.Fingerprint, and the code generated for it is kept in a cache
+// directory; a function whose fingerprint is found there is neither type
+// checked nor generated again. Since the fingerprint covers the types of
+// the callees and globals a function references, changing a signature
+// recompiles its users as well.
+//
+// Functions are generated in CodeGen's fragment mode, so the output is
+// that of new CodeGen(tc, threads) rather than the serial numbering of
+// crux.Compiler.
+public class IncrementalCompiler {
+
+    // bump whenever CodeGen output changes so old entries are not reused
+    private static final String CACHE_FORMAT = "crux-fragment-1";
+
+    private final Path cacheDir;
+    private final int threads;
+    private int reused;
+    private int generated;
+
+    public IncrementalCompiler(Path cacheDir, int threads) {
+        this.cacheDir = cacheDir;
+        this.threads = threads;
+    }
+
+    // The functions reused from and generated into the cache by the last compile
+    public int reused() {
+        return reused;
+    }
+
+    public int generated() {
+        return generated;
+    }
+
+    // Like Compiler.compile: returns 0 or the exit status of crux.Compiler
+    public int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err) {
+        reused = 0;
+        generated = 0;
+
+        // a large file is scanned in chunks and its function bodies are
+        // parsed on the worker threads
+        TokenSource s = null;
+        try {
+            s = ParallelScanner.read(sourceFilename, threads);
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            return -2;
+        }
+
+        Parser p = new Parser(s);
+        ast.Command syntaxTree = p.parse(threads);
+        if (p.hasError()) {
+            out.println("Error parsing file " + sourceFilename);
+            out.println(p.errorReport());
+            return -3;
+        }
+
+        final HashMap<FunctionDefinition, String> fingerprints = new HashMap<>();
+        final HashMap<FunctionDefinition, List<String>> cached = new HashMap<>();
+        TypeChecker tc = new TypeChecker();
+        for (Declaration declaration : (DeclarationList) syntaxTree) {
+            if (declaration instanceof FunctionDefinition) {
+                final FunctionDefinition function = (FunctionDefinition) declaration;
+                final String fingerprint = Fingerprint.of(function, CACHE_FORMAT);
+                fingerprints.put(function, fingerprint);
+                final List<String> code = load(fingerprint, function.lineNumber());
+                if (code != null) {
+                    cached.put(function, code);
+                    continue;
+                }
+            }
+            tc.check((ast.Command) declaration);
+        }
+        if (tc.hasError()) {
+            out.println("Error type-checking file " + sourceFilename);
+            out.println(tc.errorReport());
+            return -4;
+        }
+
+        CodeGen cg = new CodeGen(tc, threads);
+        for (FunctionDefinition function : cached.keySet()) {
+            cg.reuse(function, cached.get(function));
+        }
+        cg.generate(syntaxTree);
+        if (cg.hasError()) {
+            out.println("Error generating code for file " + sourceFilename);
+            out.println(cg.errorReport());
+            return -5;
+        }
+
+        reused = cached.size();
+        for (FunctionDefinition function : fingerprints.keySet()) {
+            if (!cached.containsKey(function)) {
+                store(fingerprints.get(function), function.lineNumber(), cg.fragment(function));
+                generated++;
+            }
+        }
+
+        try {
+            // the output is written all at once, so buffer it
+            Program prog = cg.getProgram();
+            PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(asmFilename), 1 << 16));
+            prog.print(ps);
+            ps.close();
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error writing assembly file: \"" + asmFilename + "\"");
+            return -6;
+        }
+        return 0;
+    }
+
+    // Cache =========================================
+
+    // The #begin and #end comments name source lines; they are stored
+    // relative to the function so cached code can move with it.
+    private static List<String> rebase(List<String> code, int delta) {
+        final ArrayList<String> lines = new ArrayList<>(code.size());
+        for (String line : code) {
+            final int comment = line.indexOf("#begin ast.") >= 0 ? line.indexOf("#begin ast.") : line.indexOf("#end ast.");
+            if (comment >= 0) {
+                final int start = line.indexOf('(', comment) + 1;
+                final int end = line.indexOf(',', start);
+                final int lineNum = Integer.parseInt(line.substring(start, end)) + delta;
+                line = line.substring(0, start) + lineNum + line.substring(end);
+            }
+            lines.add(line);
+        }
+        return lines;
+    }
+
+    private List<String> load(String fingerprint, int lineNum) {
+        final Path file = cacheDir.resolve(fingerprint + ".s");
+        try {
+            return rebase(Files.readAllLines(file, StandardCharsets.UTF_8), lineNum);
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    private void store(String fingerprint, int lineNum, List<String> code) {
+        try {
+            Files.createDirectories(cacheDir);
+            final Path temp = Files.createTempFile(cacheDir, fingerprint, ".tmp");
+            Files.write(temp, rebase(code, -lineNum), StandardCharsets.UTF_8);
+            Files.move(temp, cacheDir.resolve(fingerprint + ".s"), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            // an entry that cannot be written is simply generated next time
+        }
+    }
+
+    // Usage: crux.IncrementalCompiler [-cache dir] [-j threads] file.crx
+    // The cache defaults to .crux-cache next to the source file.
+    public static void main(String[] args) {
+        String cache = null;
+        int threads = Runtime.getRuntime().availableProcessors();
+        String sourceFilename = null;
+        for (int i = 0; i < args.length; i++) {
+            if (args[i].equals("-cache")) {
+                cache = args[++i];
+            } else if (args[i].equals("-j")) {
+                threads = Integer.parseInt(args[++i]);
+            } else {
+                sourceFilename = args[i];
+            }
+        }
+
+        if (sourceFilename == null) {
+            System.err.println("Usage: crux.IncrementalCompiler [-cache dir] [-j threads] file.crx");
+            System.exit(-1);
+        }
+
+        final Path cacheDir = cache != null
+                ? Paths.get(cache)
+                : Paths.get(sourceFilename).toAbsolutePath().resolveSibling(".crux-cache");
+        final IncrementalCompiler compiler = new IncrementalCompiler(cacheDir, threads);
+        String asmFilename = sourceFilename.replace(".crx", ".asm");
+        int status = compiler.compile(sourceFilename, asmFilename, System.out, System.err);
+        System.err.println(compiler.reused() + " functions reused, " + compiler.generated() + " generated");
+        if (status != 0) {
+            System.exit(status);
+        }
+    }
+}
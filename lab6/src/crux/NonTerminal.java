@@ -1,239 +1,93 @@
 package crux;
 
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.EnumSet;
 import java.util.Set;
 
+// The grammar of Crux, one rule per NonTerminal in the notation of
+// Grammar. FIRST and FOLLOW sets and predict tables are computed from it
+// once, as bitmasks indexed by Token.Kind.ordinal(), so every decision in
+// Parser is a single bit test or table lookup.
 public enum NonTerminal {
 
-    DESIGNATOR(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.IDENTIFIER);
-        }
-    }),
-    TYPE(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.IDENTIFIER);
-        }
-    }),
-    LITERAL(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.INTEGER);
-            add(Token.Kind.FLOAT);
-            add(Token.Kind.TRUE);
-            add(Token.Kind.FALSE);
-        }
-    }),
-    CALL_EXPRESSION(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.CALL);
-        }
-    }),
-    OP0(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.GREATER_EQUAL);
-            add(Token.Kind.LESSER_EQUAL);
-            add(Token.Kind.NOT_EQUAL);
-            add(Token.Kind.EQUAL);
-            add(Token.Kind.GREATER_THAN);
-            add(Token.Kind.LESS_THAN);
-        }
-    }),
-    OP1(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.ADD);
-            add(Token.Kind.SUB);
-            add(Token.Kind.OR);
-        }
-    }),
-    OP2(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.MUL);
-            add(Token.Kind.DIV);
-            add(Token.Kind.AND);
-        }
-    }),
-    EXPRESSION3(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.NOT);
-            add(Token.Kind.OPEN_PAREN);
-            addAll(DESIGNATOR.firstSet);
-            addAll(CALL_EXPRESSION.firstSet);
-            addAll(LITERAL.firstSet);
-        }
-    }),
-    EXPRESSION2(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(EXPRESSION3.firstSet);
-        }
-    }),
-    EXPRESSION1(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(EXPRESSION2.firstSet);
-        }
-    }),
-    EXPRESSION0(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(EXPRESSION1.firstSet);
-        }
-    }),
-    EXPRESSION_LIST(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(EXPRESSION0.firstSet);
-            add(Token.Kind.COMMA);
-        }
-    }),
-    PARAMETER(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.IDENTIFIER);
-        }
-    }),
-    PARAMETER_LIST(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(PARAMETER.firstSet);
-            add(Token.Kind.COMMA);
-        }
-    }),
-    VARIABLE_DECLARATION(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.VAR);
-        }
-    }),
-    ARRAY_DECLARATION(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.ARRAY);
-        }
-    }),
-    FUNCTION_DEFINITION(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.FUNC);
-        }
-    }),
-    DECLARATION(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(VARIABLE_DECLARATION.firstSet);
-            addAll(ARRAY_DECLARATION.firstSet);
-            addAll(FUNCTION_DEFINITION.firstSet);
-        }
-    }),
-    DECLARATION_LIST(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(DECLARATION.firstSet);
-        }
-    }),
-    ASSIGNMENT_STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.LET);
-        }
-    }),
-    CALL_STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            addAll(CALL_EXPRESSION.firstSet);
-        }
-    }),
-    IF_STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.IF);
-        }
-    }),
-    WHILE_STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.WHILE);
-        }
-    }),
-    RETURN_STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
-
-        {
-            add(Token.Kind.RETURN);
-        }
-    }),
-    STATEMENT_BLOCK(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
+    DESIGNATOR("IDENTIFIER { OPEN_BRACKET EXPRESSION0 CLOSE_BRACKET }"),
+    TYPE("IDENTIFIER"),
+    LITERAL("INTEGER | FLOAT | TRUE | FALSE"),
+    CALL_EXPRESSION("CALL IDENTIFIER OPEN_PAREN EXPRESSION_LIST CLOSE_PAREN"),
+    OP0("GREATER_EQUAL | LESSER_EQUAL | NOT_EQUAL | EQUAL | GREATER_THAN | LESS_THAN"),
+    OP1("ADD | SUB | OR"),
+    OP2("MUL | DIV | AND"),
+    EXPRESSION3("NOT EXPRESSION3 | OPEN_PAREN EXPRESSION0 CLOSE_PAREN | DESIGNATOR | CALL_EXPRESSION | LITERAL"),
+    EXPRESSION2("EXPRESSION3 { OP2 EXPRESSION3 }"),
+    EXPRESSION1("EXPRESSION2 { OP1 EXPRESSION2 }"),
+    EXPRESSION0("EXPRESSION1 [ OP0 EXPRESSION1 ]"),
+    EXPRESSION_LIST("[ EXPRESSION0 { COMMA EXPRESSION0 } ]"),
+    PARAMETER("IDENTIFIER COLON TYPE"),
+    PARAMETER_LIST("[ PARAMETER { COMMA PARAMETER } ]"),
+    VARIABLE_DECLARATION("VAR IDENTIFIER COLON TYPE SEMICOLON"),
+    ARRAY_DECLARATION("ARRAY IDENTIFIER COLON TYPE OPEN_BRACKET INTEGER CLOSE_BRACKET { OPEN_BRACKET INTEGER CLOSE_BRACKET } SEMICOLON"),
+    FUNCTION_DEFINITION("FUNC IDENTIFIER OPEN_PAREN PARAMETER_LIST CLOSE_PAREN COLON TYPE STATEMENT_BLOCK"),
+    DECLARATION("VARIABLE_DECLARATION | ARRAY_DECLARATION | FUNCTION_DEFINITION"),
+    DECLARATION_LIST("{ DECLARATION }"),
+    ASSIGNMENT_STATEMENT("LET DESIGNATOR ASSIGN EXPRESSION0 SEMICOLON"),
+    CALL_STATEMENT("CALL_EXPRESSION SEMICOLON"),
+    IF_STATEMENT("IF EXPRESSION0 STATEMENT_BLOCK [ ELSE STATEMENT_BLOCK ]"),
+    WHILE_STATEMENT("WHILE EXPRESSION0 STATEMENT_BLOCK"),
+    RETURN_STATEMENT("RETURN EXPRESSION0 SEMICOLON"),
+    STATEMENT_BLOCK("OPEN_BRACE STATEMENT_LIST CLOSE_BRACE"),
+    STATEMENT("VARIABLE_DECLARATION | CALL_STATEMENT | ASSIGNMENT_STATEMENT | IF_STATEMENT | WHILE_STATEMENT | RETURN_STATEMENT"),
+    STATEMENT_LIST("{ STATEMENT }"),
+    PROGRAM("DECLARATION_LIST EOF");
+
+    private final String rule;
+    private long first;
+    private long follow;
+    private NonTerminal[] predict;
+    private Set<Token.Kind> firstSet;
+
+    NonTerminal(String rule) {
+        this.rule = rule;
+    }
 
-        {
-            add(Token.Kind.OPEN_BRACE);
+    static {
+        final Grammar grammar = new Grammar();
+        for (NonTerminal nt : values()) {
+            nt.first = grammar.first(nt);
+            nt.follow = grammar.follow(nt);
+            nt.predict = grammar.predict(nt);
+            nt.firstSet = Collections.unmodifiableSet(toSet(nt.first));
         }
-    }),
-    STATEMENT(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
+    }
 
-        {
-            addAll(VARIABLE_DECLARATION.firstSet);
-            addAll(CALL_STATEMENT.firstSet);
-            addAll(ASSIGNMENT_STATEMENT.firstSet);
-            addAll(IF_STATEMENT.firstSet);
-            addAll(WHILE_STATEMENT.firstSet);
-            addAll(RETURN_STATEMENT.firstSet);
+    private static EnumSet<Token.Kind> toSet(long mask) {
+        final EnumSet<Token.Kind> set = EnumSet.noneOf(Token.Kind.class);
+        for (Token.Kind kind : Token.Kind.values()) {
+            if ((mask >>> kind.ordinal() & 1) != 0) {
+                set.add(kind);
+            }
         }
-    }),
-    STATEMENT_LIST(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
+        return set;
+    }
 
-        {
-            addAll(STATEMENT.firstSet);
-        }
-    }),
-    PROGRAM(new HashSet<Token.Kind>() {
-        private static final long serialVersionUID = 1L;
+    String rule() {
+        return rule;
+    }
 
-        {
-            addAll(DECLARATION_LIST.firstSet);
-        }
-    });
+    public final Set<Token.Kind> firstSet() {
+        return firstSet;
+    }
 
-    private final HashSet<Token.Kind> firstSet;
+    public boolean first(Token.Kind kind) {
+        return (first >>> kind.ordinal() & 1) != 0;
+    }
 
-    NonTerminal(HashSet<Token.Kind> firstSet) {
-        this.firstSet = firstSet;
+    public boolean follow(Token.Kind kind) {
+        return (follow >>> kind.ordinal() & 1) != 0;
     }
 
-    public final Set<Token.Kind> firstSet() {
-        return firstSet;
+    // The alternative of this rule to parse on kind, or null if there is
+    // none; only for rules whose alternatives are all NonTerminals
+    public NonTerminal predict(Token.Kind kind) {
+        return predict == null ? null : predict[kind.ordinal()];
     }
 }
@@ -0,0 +1,117 @@
+package crux;
+
+import java.util.ArrayList;
+import java.util.List;
+
+// The options of one compile, as given by the flags of crux.Compiler. An
+// Options is immutable and is passed to each compile, so the files of a
+// batch and the requests of a CompileServer can each have their own.
+public final class Options {
+
+    // How a file is compiled; a compile has one mode
+    public enum Mode {
+        SERIAL(null),
+        // the phases run at once (see Pipeline)
+        PIPELINE("-pipeline"),
+        // a declaration at a time, in bounded memory (see StreamingCompiler)
+        STREAM("-stream"),
+        // only the bodies of the functions main can reach (see Parser.parseReachable)
+        LAZY("-lazy"),
+        // checked and generated in one pass (see mips.FusedCodeGen)
+        FUSED("-fused");
+
+        private final String flag;
+
+        Mode(String flag) {
+            this.flag = flag;
+        }
+
+        public String flag() {
+            return flag;
+        }
+
+        // The mode a flag selects, or null if it is not a mode flag
+        public static Mode of(String flag) {
+            for (Mode mode : values()) {
+                if (flag.equals(mode.flag)) {
+                    return mode;
+                }
+            }
+            return null;
+        }
+    }
+
+    public static final Options DEFAULT = new Options(Mode.SERIAL, Diagnostics.DEFAULT_MAX_ERRORS, 1);
+
+    private final Mode mode;
+    private final int maxErrors;
+    private final int threads;
+
+    private Options(Mode mode, int maxErrors, int threads) {
+        this.mode = mode;
+        this.maxErrors = maxErrors;
+        this.threads = threads;
+    }
+
+    public Mode mode() {
+        return mode;
+    }
+
+    // Each phase reports at most this many errors
+    public int maxErrors() {
+        return maxErrors;
+    }
+
+    // The threads the function bodies of a file are type checked and
+    // generated on (see TypeChecker(int) and CodeGen(TypeChecker, int)); with
+    // 1 they are compiled serially. Pipeline and StreamingCompiler compile a
+    // declaration at a time, and -fused generates as it checks, so they
+    // generate serially.
+    public int threads() {
+        return threads;
+    }
+
+    // Throws IllegalArgumentException if another mode is already chosen
+    public Options withMode(Mode mode) {
+        if (this.mode != Mode.SERIAL && this.mode != mode) {
+            throw new IllegalArgumentException(this.mode.flag() + " cannot be combined with " + mode.flag());
+        }
+        return new Options(mode, maxErrors, threads);
+    }
+
+    public Options withMaxErrors(int maxErrors) {
+        return new Options(mode, maxErrors, threads);
+    }
+
+    public Options withThreads(int threads) {
+        return new Options(mode, maxErrors, threads);
+    }
+
+    // The flags that give these options, for passing them on; the threads
+    // are left to whoever runs the compile
+    public List<String> flags() {
+        final List<String> flags = new ArrayList<>();
+        if (mode != Mode.SERIAL) {
+            flags.add(mode.flag());
+        }
+        if (maxErrors != Diagnostics.DEFAULT_MAX_ERRORS) {
+            flags.add("-max-errors");
+            flags.add(String.valueOf(maxErrors));
+        }
+        return flags;
+    }
+
+    // The part of a ResultCache key the options decide. -lazy changes the
+    // output, by leaving out the errors in the bodies of the functions main
+    // cannot reach, and code generated on several threads has its labels
+    // namespaced by function; every other mode compiles to the same result.
+    public String key(boolean asm) {
+        return (asm ? "asm" : "check") + " " + maxErrors + (mode == Mode.LAZY ? " lazy" : "")
+                + (asm && fragments() ? " fragments" : "");
+    }
+
+    // Whether the code is generated in per-function fragments
+    private boolean fragments() {
+        return threads > 1 && (mode == Mode.SERIAL || mode == Mode.LAZY);
+    }
+}
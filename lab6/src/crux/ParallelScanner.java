@@ -0,0 +1,160 @@
+package crux;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+// Scans a source on several threads and hands its tokens to the Parser in
+// order. Crux has only "//" comments and no token spans a line, so the
+// source is split into chunks that each end with a newline, and a Scanner
+// started on a chunk's first line produces exactly the tokens, lines and
+// positions the whole-file Scanner would. The EOF of every chunk but the
+// last is dropped.
+//
+// Chunks are scanned at most two per thread ahead of the Parser, and a
+// chunk's tokens are released once it has read them, so the tokens of the
+// whole file are never held at once.
+public class ParallelScanner implements TokenSource {
+
+    // large enough to be worth a task, and small enough that the tokens
+    // scanned ahead do not outlive the young generation
+    private static final int CHUNK_SIZE = 1 << 16;
+
+    private final ArrayList<Callable<List<Token>>> chunks = new ArrayList<>();
+    private final ArrayDeque<Future<List<Token>>> scanned = new ArrayDeque<>();
+    private final int window;
+    private ForkJoinPool pool;
+    private int submitted;
+    private List<Token> tokens = Collections.emptyList();
+    private int next;
+
+    public ParallelScanner(String source, int threads) {
+        this(source, threads, CHUNK_SIZE);
+    }
+
+    ParallelScanner(String source, int threads, int chunkSize) {
+        int start = 0;
+        int lineNum = 1;
+        do {
+            int end = Math.min(source.length(), start + chunkSize);
+            final int newline = source.indexOf('\n', Math.max(start, end - 1));
+            end = newline < 0 ? source.length() : newline + 1;
+
+            final Chunk chunk = new Chunk(source, start, end);
+            final int firstLine = lineNum;
+            final boolean last = end == source.length();
+            chunks.add(() -> scan(chunk, firstLine, last));
+
+            for (int i = source.indexOf('\n', start); i >= 0 && i < end; i = source.indexOf('\n', i + 1)) {
+                lineNum++;
+            }
+            start = end;
+        } while (start < source.length());
+
+        window = Math.max(1, threads) * 2;
+        if (threads > 1 && chunks.size() > 1) {
+            pool = new ForkJoinPool(Math.min(threads, chunks.size()));
+        }
+        submit();
+    }
+
+    private void submit() {
+        while (submitted < chunks.size() && scanned.size() < window) {
+            final Callable<List<Token>> chunk = chunks.set(submitted++, null);
+            if (pool != null) {
+                scanned.add(pool.submit(chunk));
+            } else {
+                final FutureTask<List<Token>> task = new FutureTask<>(chunk);
+                task.run();
+                scanned.add(task);
+            }
+        }
+        if (submitted == chunks.size() && pool != null) {
+            pool.shutdown();
+        }
+    }
+
+    // Decodes the file as a FileReader would
+    public static ParallelScanner read(String sourceFilename, int threads) throws IOException {
+        return new ParallelScanner(new String(Files.readAllBytes(Paths.get(sourceFilename)), Charset.defaultCharset()),
+                threads);
+    }
+
+    private static List<Token> scan(Chunk chunk, int lineNum, boolean last) {
+        final Scanner scanner = new Scanner(chunk, lineNum);
+        final ArrayList<Token> tokens = new ArrayList<>();
+        Token token = scanner.next();
+        while (!token.is(Token.Kind.EOF)) {
+            tokens.add(token);
+            token = scanner.next();
+        }
+        if (last) {
+            tokens.add(token);
+        }
+        return tokens;
+    }
+
+    // A range of the source. The Scanner reads one char at a time, which
+    // a StringReader would lock and a plain Reader would copy through an
+    // array for.
+    private static class Chunk extends Reader {
+
+        private final String source;
+        private final int end;
+        private int next;
+
+        Chunk(String source, int start, int end) {
+            this.source = source;
+            this.next = start;
+            this.end = end;
+        }
+
+        @Override
+        public int read() {
+            return next < end ? source.charAt(next++) : -1;
+        }
+
+        @Override
+        public int read(char[] buffer, int offset, int length) {
+            if (next == end) {
+                return -1;
+            }
+            final int count = Math.min(length, end - next);
+            source.getChars(next, next + count, buffer, offset);
+            next += count;
+            return count;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    @Override
+    public Token next() {
+        while (next == tokens.size()) {
+            if (scanned.isEmpty()) {
+                return null;
+            }
+            try {
+                tokens = scanned.poll().get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new IllegalStateException(e);
+            }
+            next = 0;
+            submit();
+        }
+        return tokens.get(next++);
+    }
+}
@@ -4,9 +4,16 @@ import ast.*;
 import ast.Error;
 import types.*;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.IdentityHashMap;
 import java.util.List;
 import java.util.Stack;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import java.util.function.Supplier;
 
 public class Parser {
 
@@ -16,23 +23,39 @@ public class Parser {
 
     // SymbolTable Management ==========================
     private SymbolTable currentSymbolTable;
-    private StringBuilder errorBuffer;
+    private Diagnostics diagnostics;
 
-    private Scanner scanner;
+    private TokenSource scanner;
     private Token currentToken;
 
-    public Parser(Scanner scanner) {
+    // set while parse(threads) skims the declarations
+    private TokenList tokens;
+    private ArrayList<Body> bodies;
+    // set while parseReachable() parses a body: the functions it calls
+    private ArrayList<Symbol> callees;
+
+    // the declarations of begin() and nextDeclaration()
+    private DeclarationList program;
+    // the id takeDeclaration() numbers each declaration from
+    private int declarationIds;
+
+    public Parser(TokenSource scanner) {
         this.scanner = scanner;
-        errorBuffer = new StringBuilder();
+        diagnostics = new Diagnostics();
         currentToken = scanner.next();
     }
 
     public boolean hasError() {
-        return errorBuffer.length() != 0;
+        return diagnostics.hasError();
     }
 
     public String errorReport() {
-        return errorBuffer.toString();
+        return diagnostics.report();
+    }
+
+    // Reports at most maxErrors errors; set before parsing
+    public void setMaxErrors(int maxErrors) {
+        diagnostics = new Diagnostics(maxErrors);
     }
 
     private void initSymbolTable() {
@@ -47,41 +70,32 @@ public class Parser {
 
     private void insertSymbolReadInt() {
         final Symbol symbol = currentSymbolTable.insert("readInt");
-        final TypeList args = new TypeList();
-        symbol.setType(new FuncType(args, new IntType()));
+        symbol.setType(FuncType.of(TypeList.of(), IntType.INSTANCE));
     }
 
     private void insertSymbolReadFloat() {
         final Symbol symbol = currentSymbolTable.insert("readFloat");
-        final TypeList args = new TypeList();
-        symbol.setType(new FuncType(args, new FloatType()));
+        symbol.setType(FuncType.of(TypeList.of(), FloatType.INSTANCE));
     }
 
     private void insertSymbolPrintBool() {
         final Symbol symbol = currentSymbolTable.insert("printBool");
-        final TypeList args = new TypeList();
-        args.append(new BoolType());
-        symbol.setType(new FuncType(args, new VoidType()));
+        symbol.setType(FuncType.of(TypeList.of(BoolType.INSTANCE), VoidType.INSTANCE));
     }
 
     private void insertSymbolPrintInt() {
         final Symbol symbol = currentSymbolTable.insert("printInt");
-        final TypeList args = new TypeList();
-        args.append(new IntType());
-        symbol.setType(new FuncType(args, new VoidType()));
+        symbol.setType(FuncType.of(TypeList.of(IntType.INSTANCE), VoidType.INSTANCE));
     }
 
     private void insertSymbolPrintFloat() {
         final Symbol symbol = currentSymbolTable.insert("printFloat");
-        final TypeList args = new TypeList();
-        args.append(new FloatType());
-        symbol.setType(new FuncType(args, new VoidType()));
+        symbol.setType(FuncType.of(TypeList.of(FloatType.INSTANCE), VoidType.INSTANCE));
     }
 
     private void insertSymbolPrintln() {
         final Symbol symbol = currentSymbolTable.insert("println");
-        final TypeList args = new TypeList();
-        symbol.setType(new FuncType(args, new VoidType()));
+        symbol.setType(FuncType.of(TypeList.of(), VoidType.INSTANCE));
     }
 
     private void enterScope() {
@@ -103,38 +117,25 @@ public class Parser {
         try {
             return currentSymbolTable.lookup(name);
         } catch (SymbolNotFoundError e) {
-            String message = reportResolveSymbolError(name, ident.lineNumber(), ident.charPosition());
-            return new ErrorSymbol(message);
+            return reportSymbolError(Diagnostics.Code.RESOLVE_SYMBOL, name, ident.lineNumber(), ident.charPosition());
         }
     }
 
-    private String reportResolveSymbolError(String name, int lineNum, int charPos) {
-        String message = "ResolveSymbolError(" + lineNum + "," + charPos + ")[Could not find " + name + ".]";
-        errorBuffer.append(message)
-                .append("\n");
-        errorBuffer.append(currentSymbolTable.toString())
-                .append("\n");
-        return message;
-    }
-
     private Symbol tryDeclareSymbol(Token ident) {
         assert (ident.is(Token.Kind.IDENTIFIER));
         String name = ident.lexeme();
         try {
             return currentSymbolTable.insert(name);
         } catch (RedeclarationError re) {
-            String message = reportDeclareSymbolError(name, ident.lineNumber(), ident.charPosition());
-            return new ErrorSymbol(message);
+            return reportSymbolError(Diagnostics.Code.DECLARE_SYMBOL, name, ident.lineNumber(), ident.charPosition());
         }
     }
 
-    private String reportDeclareSymbolError(String name, int lineNum, int charPos) {
-        String message = "DeclareSymbolError(" + lineNum + "," + charPos + ")[" + name + " already exists.]";
-        errorBuffer.append(message)
-                .append("\n");
-        errorBuffer.append(currentSymbolTable.toString())
-                .append("\n");
-        return message;
+    // Reports the error with the symbols in scope, and returns a symbol
+    // named by the error's message
+    private Symbol reportSymbolError(Diagnostics.Code code, String name, int lineNum, int charPos) {
+        diagnostics.report(code, lineNum, charPos, name, currentSymbolTable.snapshot());
+        return new ErrorSymbol(() -> Diagnostics.header(code, lineNum, charPos, name, null));
     }
 
     // Typing System ===================================
@@ -145,20 +146,20 @@ public class Parser {
 
     // Helper Methods ==========================================
 
-    private String reportSyntaxError(NonTerminal nt) {
-        String message = "SyntaxError(" + lineNumber() + "," + charPosition() + ")[Expected a token from " + nt.name()
-                + " but got " + currentToken.kind().name() + ".]";
-        errorBuffer.append(message)
-                .append("\n");
-        return message;
+    private QuitParseException reportSyntaxError(NonTerminal nt) {
+        return reportSyntaxError(Diagnostics.Code.EXPECTED_NON_TERMINAL, nt);
+    }
+
+    private QuitParseException reportSyntaxError(Token.Kind kind) {
+        return reportSyntaxError(Diagnostics.Code.EXPECTED_TOKEN, kind);
     }
 
-    private String reportSyntaxError(Token.Kind kind) {
-        String message = "SyntaxError(" + lineNumber() + "," + charPosition() + ")[Expected " + kind.name()
-                + " but got " + currentToken.kind().name() + ".]";
-        errorBuffer.append(message)
-                .append("\n");
-        return message;
+    private QuitParseException reportSyntaxError(Diagnostics.Code code, Object expected) {
+        final int lineNum = lineNumber();
+        final int charPos = charPosition();
+        final Token.Kind got = currentToken.kind();
+        diagnostics.report(code, lineNum, charPos, expected, got);
+        return new QuitParseException(() -> Diagnostics.header(code, lineNum, charPos, expected, got));
     }
 
     private int lineNumber() {
@@ -173,8 +174,7 @@ public class Parser {
         Token tok = currentToken;
         if (accept(kind))
             return tok;
-        String errorMessage = reportSyntaxError(kind);
-        throw new QuitParseException(errorMessage);
+        throw reportSyntaxError(kind);
         //return ErrorToken(errorMessage);
     }
 
@@ -182,17 +182,31 @@ public class Parser {
         Token tok = currentToken;
         if (accept(nt))
             return tok;
-        String errorMessage = reportSyntaxError(nt);
-        throw new QuitParseException(errorMessage);
+        throw reportSyntaxError(nt);
         //return ErrorToken(errorMessage);
     }
 
+    // Unwinds to the enclosing statement or declaration, which recovers.
+    // Thrown once per syntax error, so it has no stack trace and its
+    // message is only built if it is read.
     public static class QuitParseException extends RuntimeException {
 
         private static final long serialVersionUID = 1L;
 
+        private transient Supplier<String> format;
+
         public QuitParseException(String errorMessage) {
-            super(errorMessage);
+            super(errorMessage, null, false, false);
+        }
+
+        private QuitParseException(Supplier<String> format) {
+            super(null, null, false, false);
+            this.format = format;
+        }
+
+        @Override
+        public String getMessage() {
+            return format != null ? format.get() : super.getMessage();
         }
     }
 
@@ -201,7 +215,7 @@ public class Parser {
     }
 
     private boolean have(NonTerminal nt) {
-        return nt.firstSet().contains(currentToken.kind());
+        return nt.first(currentToken.kind());
     }
 
     private boolean accept(Token.Kind kind) {
@@ -223,20 +237,48 @@ public class Parser {
     private boolean expect(Token.Kind kind) {
         if (accept(kind))
             return true;
-        final String errorMessage = reportSyntaxError(kind);
-        throw new QuitParseException(errorMessage);
+        throw reportSyntaxError(kind);
     }
 
     private boolean expect(NonTerminal nt) {
         if (accept(nt))
             return true;
-        final String errorMessage = reportSyntaxError(nt);
-        throw new QuitParseException(errorMessage);
+        throw reportSyntaxError(nt);
+    }
+
+    // Error Recovery ==================================
+
+    // After a syntax error in a statement, skips past the next ";", or up to
+    // a token that can follow a statement or start a declaration
+    private void synchronizeStatement() {
+        while (!have(Token.Kind.EOF) && !NonTerminal.STATEMENT.follow(currentToken.kind())
+                && !have(NonTerminal.DECLARATION)) {
+            if (accept(Token.Kind.SEMICOLON)) {
+                return;
+            }
+            currentToken = scanner.next();
+        }
+    }
+
+    // After a syntax error in a declaration, skips up to the next "var",
+    // "array" or "func" that is not inside braces, so the statements of a
+    // function whose header is broken are skipped with it
+    private void synchronizeDeclaration() {
+        int depth = 0;
+        while (!have(Token.Kind.EOF) && !(depth == 0 && have(NonTerminal.DECLARATION))) {
+            if (have(Token.Kind.OPEN_BRACE)) {
+                depth++;
+            } else if (have(Token.Kind.CLOSE_BRACE) && depth > 0) {
+                depth--;
+            }
+            currentToken = scanner.next();
+        }
     }
 
 // Parser ==========================================
 
     public Command parse() {
+        Command.resetIds();
         initSymbolTable();
         try {
             return program();
@@ -245,6 +287,270 @@ public class Parser {
         }
     }
 
+    // Parses one declaration at a time, for a pipeline: begin() starts the
+    // program and returns its DeclarationList, and each nextDeclaration()
+    // parses the next declaration into that list and returns it, or returns
+    // null at the end of the source. The tree and the errors are the same as
+    // those of parse().
+    public DeclarationList begin() {
+        Command.resetIds();
+        initSymbolTable();
+        program = new DeclarationList(lineNumber(), charPosition());
+        declarationIds = Command.nextId();
+        return program;
+    }
+
+    public Declaration nextDeclaration() {
+        final Declaration declaration = parseDeclaration();
+        if (declaration != null) {
+            program.add(declaration);
+        }
+        return declaration;
+    }
+
+    // Like nextDeclaration(), but for a compile that streams the program:
+    // the declaration is not added to the DeclarationList, and its nodes
+    // are numbered from the same first id as the previous declaration's, so
+    // neither the tree nor the per-node results of the other phases grow
+    // with the source once each declaration is released.
+    public Declaration takeDeclaration() {
+        Command.resetIds(declarationIds);
+        return parseDeclaration();
+    }
+
+    private Declaration parseDeclaration() {
+        while (!have(NonTerminal.DECLARATION)) {
+            if (have(Token.Kind.EOF)) {
+                return null;
+            }
+            // report the stray token, then carry on at the next declaration
+            reportSyntaxError(Token.Kind.EOF);
+            currentToken = scanner.next();
+            synchronizeDeclaration();
+        }
+        return recoverDeclaration();
+    }
+
+    // Parses the function bodies on up to the given number of threads. A
+    // first pass parses the declarations and function signatures as parse()
+    // does but only records where each body is; the bodies are then parsed
+    // concurrently, each resolving names against its own scope chained to
+    // a prefix of the globals: those declared before its end, as parse()
+    // would see them. A source with any syntax or symbol error is parsed
+    // again with parse(), so the error report is always the serial one.
+    public Command parse(int threads) {
+        if (threads <= 1) {
+            return parse();
+        }
+        final ArrayList<Token> all = new ArrayList<>();
+        final ArrayList<Body> skimmed = new ArrayList<>();
+        final Command tree = skim(all, skimmed);
+        if (hasError() || !(tree instanceof DeclarationList) || !parseBodies(all, skimmed, threads)) {
+            return reparse(all);
+        }
+        return tree;
+    }
+
+    // Parses only the function bodies main can reach through calls. The
+    // first pass of parse(threads) only checks that the braces of each body
+    // balance; then the body of main is parsed, and the body of each
+    // function it calls, and so on. The functions never reached stay in the
+    // tree with empty bodies, marked FunctionDefinition.setUnreached: their
+    // signatures are checked, but their bodies are neither checked nor
+    // generated, so a syntax, symbol or type error inside them is not
+    // found. A source with any error in what is parsed, or without a main,
+    // is parsed again with parse().
+    public Command parseReachable() {
+        final ArrayList<Token> all = new ArrayList<>();
+        final ArrayList<Body> skimmed = new ArrayList<>();
+        final Command tree = skim(all, skimmed);
+        if (hasError() || !(tree instanceof DeclarationList)) {
+            return reparse(all);
+        }
+
+        // the functions not reached yet
+        final IdentityHashMap<Symbol, Body> pending = new IdentityHashMap<>();
+        final ArrayDeque<Body> reached = new ArrayDeque<>();
+        for (Body body : skimmed) {
+            pending.put(body.function, body);
+            if (body.function.name().equals("main")) {
+                reached.add(body);
+            }
+        }
+        if (reached.isEmpty()) {
+            return reparse(all);
+        }
+        pending.remove(reached.peek().function);
+
+        while (!reached.isEmpty()) {
+            final Body body = reached.poll();
+            body.scope.setParent(body.scope.getParent().prefix(body.globals));
+            final Token last = all.get(body.end);
+            final ArrayList<Symbol> called = new ArrayList<>();
+            if (!parseBody(new TokenList(all, body.start, body.end, Token.EOF(last.lineNumber(), last.charPosition())),
+                    body, Command.nextId(), called)) {
+                return reparse(all);
+            }
+            for (Symbol function : called) {
+                final Body callee = pending.remove(function);
+                if (callee != null) {
+                    reached.add(callee);
+                }
+            }
+        }
+
+        for (Declaration declaration : (DeclarationList) tree) {
+            if (pending.containsKey(declaration.symbol())) {
+                ((FunctionDefinition) declaration).setUnreached();
+            }
+        }
+        return tree;
+    }
+
+    // The first pass of parse(threads): reads the rest of the source into
+    // all, and parses it recording each function body in skimmed instead
+    private Command skim(List<Token> all, List<Body> skimmed) {
+        for (Token token = currentToken; token != null; token = scanner.next()) {
+            all.add(token);
+        }
+
+        tokens = new TokenList(all, 0, all.size() - 1, all.get(all.size() - 1));
+        scanner = tokens;
+        currentToken = scanner.next();
+        bodies = new ArrayList<>();
+        final Command tree = parse();
+        skimmed.addAll(bodies);
+        tokens = null;
+        bodies = null;
+        return tree;
+    }
+
+    private Command reparse(List<Token> all) {
+        diagnostics = new Diagnostics(diagnostics.maxErrors());
+        scanner = new TokenList(all, 0, all.size() - 1, all.get(all.size() - 1));
+        currentToken = scanner.next();
+        return parse();
+    }
+
+    // A function body found by the first pass of parse(threads), from its
+    // "{" to just past its "}"
+    private static class Body {
+        final Symbol function;
+        final StatementList statements;
+        final SymbolTable scope;
+        final int globals;
+        final int start;
+        final int end;
+        final int nodes;
+
+        Body(Symbol function, StatementList statements, SymbolTable scope, int globals, int start, int end,
+             int nodes) {
+            this.function = function;
+            this.statements = statements;
+            this.scope = scope;
+            this.globals = globals;
+            this.start = start;
+            this.end = end;
+            this.nodes = nodes;
+        }
+    }
+
+    // A range of the tokens of a source, read back, ending with eof
+    private static class TokenList implements TokenSource {
+        private final List<Token> tokens;
+        private final int end;
+        private final Token eof;
+        private int next;
+
+        TokenList(List<Token> tokens, int start, int end, Token eof) {
+            this.tokens = tokens;
+            this.next = start;
+            this.end = end;
+            this.eof = eof;
+        }
+
+        @Override
+        public Token next() {
+            if (next < end) {
+                return tokens.get(next++);
+            }
+            return next++ == end ? eof : null;
+        }
+
+        // The index of the token after the current one
+        int position() {
+            return next;
+        }
+    }
+
+    private boolean parseBodies(List<Token> all, List<Body> bodies, int threads) {
+        // Nodes are numbered per thread, so each body gets a range of ids
+        // as large as the most nodes its tokens can build
+        final ArrayList<Callable<Boolean>> tasks = new ArrayList<>();
+        int firstId = Command.nextId();
+        for (Body body : bodies) {
+            body.scope.setParent(body.scope.getParent().prefix(body.globals));
+            final int ids = firstId;
+            final Token last = all.get(body.end);
+            final Token eof = Token.EOF(last.lineNumber(), last.charPosition());
+            tasks.add(() -> parseBody(new TokenList(all, body.start, body.end, eof), body, ids, null));
+            firstId += body.nodes;
+        }
+
+        final ForkJoinPool pool = new ForkJoinPool(threads);
+        try {
+            boolean parsed = true;
+            for (Future<Boolean> task : pool.invokeAll(tasks)) {
+                parsed &= task.get();
+            }
+            Command.resetIds(firstId);
+            return parsed;
+        } catch (InterruptedException | ExecutionException e) {
+            throw new IllegalStateException(e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static boolean parseBody(TokenList tokens, Body body, int firstId, ArrayList<Symbol> callees) {
+        final Parser worker = new Parser(tokens);
+        worker.currentSymbolTable = body.scope;
+        worker.callees = callees;
+        Command.resetIds(firstId);
+        try {
+            worker.expect(Token.Kind.OPEN_BRACE);
+            worker.statements(body.statements);
+            worker.expect(Token.Kind.CLOSE_BRACE);
+        } catch (QuitParseException q) {
+            return false;
+        }
+        return !worker.hasError() && worker.have(Token.Kind.EOF) && Command.nextId() <= firstId + body.nodes;
+    }
+
+    // The most nodes a statement builds on consuming a token of a kind: an
+    // identifier can become an AddressOf and a Dereference, a call a Call
+    // and its ExpressionList, and an "if" its missing else block as well
+    private static int maxNodes(Token.Kind kind) {
+        switch (kind) {
+            case IDENTIFIER:
+            case CALL:
+            case IF:
+                return 2;
+            case ELSE:
+            case ASSIGN:
+            case COMMA:
+            case SEMICOLON:
+            case COLON:
+            case OPEN_PAREN:
+            case CLOSE_PAREN:
+            case CLOSE_BRACE:
+            case CLOSE_BRACKET:
+                return 0;
+            default:
+                return 1;
+        }
+    }
+
     /********************************************** Grammar Rules ****************************************************/
 
     // literal :1= INTEGER | FLOAT | TRUE | FALSE .
@@ -278,77 +584,202 @@ public class Parser {
     }
 
     // op0 := ">=" | "<=" | "!=" | "==" | ">" | "<" .
-    private Token op0() {
-        return expectRetrieve(NonTerminal.OP0);
-    }
-
     // op1 := "+" | "-" | "or" .
-    private Token op1() {
-        return expectRetrieve(NonTerminal.OP1);
-    }
-
     // op2 := "*" | "/" | "and" .
-    private Token op2() {
-        return expectRetrieve(NonTerminal.OP2);
-    }
-
     // expression0 := expression1 [ op0 expression1 ] .
+    // expression1 := expression2 { op1  expression2 } .
+    // expression2 := expression3 { op2 expression3 } .
+    // expression3 := "not" expression3
+    //    | "(" expression0 ")"
+    //    | designator
+    //    | call-expression
+    //    | literal .
+    //
+    // Parsed by precedence climbing on explicit stacks rather than by one
+    // method per rule, so the nesting of an expression is bounded by the
+    // heap and not by the Java stack. Every "(", "[", call and "not" that
+    // is still open has a Frame, and each Frame owns the operators pushed
+    // since it was opened. The tree built, its node positions and the
+    // errors reported are the same as those of the rules above.
     private Expression expression0() {
-        Expression left = expression1();
-        if (have(NonTerminal.OP0)) {
-            final Token op = op0();
-            final Expression right = expression1();
-            left = Command.newExpression(left, op, right);
+        final ArrayList<Frame> frames = new ArrayList<>();
+        final ArrayList<Expression> operands = new ArrayList<>();
+        final ArrayList<Token> operators = new ArrayList<>();
+        // the innermost frame that owns operators; a "not" only ever applies
+        // to the operand that follows it, so it never owns any
+        Frame frame = new Frame(Frame.Kind.BOTTOM, 0, null);
+        frames.add(frame);
+
+        while (true) {
+            // expression3, after any "not" and "(" in front of it
+            final int linNum = lineNumber();
+            final int charPos = charPosition();
+            final Token token = currentToken;
+            Expression operand = null;
+            if (accept(Token.Kind.NOT)) {
+                final Frame not = new Frame(Frame.Kind.NOT, operators.size(), frame);
+                not.token = token;
+                frames.add(not);
+            } else if (accept(Token.Kind.OPEN_PAREN)) {
+                frame = new Frame(Frame.Kind.PAREN, operators.size(), frame);
+                frames.add(frame);
+            } else if (have(NonTerminal.DESIGNATOR)) {
+                final Symbol symbol = tryResolveSymbol(expectRetrieve(Token.Kind.IDENTIFIER));
+                final Expression base = new AddressOf(linNum, charPos, symbol);
+                if (accept(Token.Kind.OPEN_BRACKET)) {
+                    frame = openIndex(base, linNum, charPos, operators.size(), frame);
+                    frames.add(frame);
+                } else {
+                    operand = new Dereference(linNum, charPos, base);
+                }
+            } else if (have(NonTerminal.CALL_EXPRESSION)) {
+                expect(Token.Kind.CALL);
+                final Symbol symbol = tryResolveSymbol(expectRetrieve(Token.Kind.IDENTIFIER));
+                expect(Token.Kind.OPEN_PAREN);
+                final ExpressionList arguments = new ExpressionList(lineNumber(), charPosition());
+                if (have(NonTerminal.EXPRESSION0)) {
+                    frame = new Frame(Frame.Kind.CALL, operators.size(), frame);
+                    frame.symbol = symbol;
+                    frame.arguments = arguments;
+                    frame.lineNum = linNum;
+                    frame.charPos = charPos;
+                    frames.add(frame);
+                } else {
+                    expect(Token.Kind.CLOSE_PAREN);
+                    operand = newCall(linNum, charPos, symbol, arguments);
+                }
+            } else if (have(NonTerminal.LITERAL)) {
+                operand = literal();
+            } else {
+                operand = new Error(linNum, charPos, "invalid expression");
+            }
+
+            // each completed operand may complete the frames around it
+            while (operand != null) {
+                while (frames.get(frames.size() - 1).kind == Frame.Kind.NOT) {
+                    operand = Command.newExpression(operand, frames.remove(frames.size() - 1).token, null);
+                }
+                operands.add(operand);
+                operand = null;
+
+                final int level = level(frame);
+                if (level >= 0) {
+                    final Token op = currentToken;
+                    reduce(operands, operators, frame.operators, level);
+                    operators.add(op);
+                    frame.hasComparison |= level == 0;
+                    currentToken = scanner.next();
+                    break;
+                }
+
+                reduce(operands, operators, frame.operators, 0);
+                final Expression exp0 = operands.remove(operands.size() - 1);
+                final Frame closed = frames.remove(frames.size() - 1);
+                frame = closed.outer;
+                switch (closed.kind) {
+                    case BOTTOM:
+                        return exp0;
+                    case PAREN:
+                        expect(Token.Kind.CLOSE_PAREN);
+                        operand = exp0;
+                        break;
+                    case INDEX:
+                        final Expression base = new Index(closed.lineNum, closed.charPos, closed.base, exp0);
+                        expect(Token.Kind.CLOSE_BRACKET);
+                        if (accept(Token.Kind.OPEN_BRACKET)) {
+                            frame = openIndex(base, closed.designatorLineNum, closed.designatorCharPos,
+                                    operators.size(), frame);
+                            frames.add(frame);
+                        } else {
+                            operand = new Dereference(closed.designatorLineNum, closed.designatorCharPos, base);
+                        }
+                        break;
+                    case CALL:
+                        closed.arguments.add(exp0);
+                        if (accept(Token.Kind.COMMA)) {
+                            closed.hasComparison = false;
+                            frame = closed;
+                            frames.add(frame);
+                        } else {
+                            expect(Token.Kind.CLOSE_PAREN);
+                            operand = newCall(closed.lineNum, closed.charPos, closed.symbol, closed.arguments);
+                        }
+                        break;
+                    default:
+                        throw new IllegalStateException("Unexpected frame " + closed.kind);
+                }
+            }
         }
-        return left;
     }
 
-    // expression1 := expression2 { op1  expression2 } .
-    private Expression expression1() {
-        Expression left = expression2();
-        while (have(NonTerminal.OP1)) {
-            final Token op = op1();
-            final Expression right = expression2();
-            left = Command.newExpression(left, op, right);
+    // An open "(", "[", call or "not" of expression0, or the expression
+    // itself at the bottom
+    private static class Frame {
+
+        enum Kind {
+            BOTTOM, NOT, PAREN, INDEX, CALL
+        }
+
+        final Kind kind;
+        // the height of the operator stack when the frame was opened
+        final int operators;
+        // the frame that owned operators when this one was opened, which
+        // owns them again once this one is closed
+        final Frame outer;
+        boolean hasComparison;
+
+        Token token;
+        Expression base;
+        Symbol symbol;
+        ExpressionList arguments;
+        int lineNum;
+        int charPos;
+        int designatorLineNum;
+        int designatorCharPos;
+
+        Frame(Kind kind, int operators, Frame outer) {
+            this.kind = kind;
+            this.operators = operators;
+            this.outer = outer;
         }
-        return left;
     }
 
-    // expression2 := expression3 { op2 expression3 } .
-    private Expression expression2() {
-        Expression left = expression3();
-        while (have(NonTerminal.OP2)) {
-            final Token op = op2();
-            final Expression right = expression3();
-            left = Command.newExpression(left, op, right);
+    private Frame openIndex(Expression base, int designatorLineNum, int designatorCharPos, int operators,
+                            Frame outer) {
+        final Frame frame = new Frame(Frame.Kind.INDEX, operators, outer);
+        frame.base = base;
+        frame.lineNum = lineNumber();
+        frame.charPos = charPosition();
+        frame.designatorLineNum = designatorLineNum;
+        frame.designatorCharPos = designatorCharPos;
+        return frame;
+    }
+
+    // The precedence of the current token as a binary operator of frame, or
+    // -1 if it ends the frame: op0 binds loosest and can be used only once
+    private int level(Frame frame) {
+        if (have(NonTerminal.OP2)) {
+            return 2;
+        } else if (have(NonTerminal.OP1)) {
+            return 1;
+        } else if (have(NonTerminal.OP0) && !frame.hasComparison) {
+            return 0;
         }
-        return left;
+        return -1;
     }
 
-    // expression3 := "not" expression3
-    //    | "(" expression0 ")"
-    //    | designator
-    //    | call-expression
-    //    | literal .
-    private Expression expression3() {
-        final int linNum = lineNumber();
-        final int charPos = charPosition();
+    private static int level(Token op) {
+        return NonTerminal.OP2.first(op.kind()) ? 2 : NonTerminal.OP1.first(op.kind()) ? 1 : 0;
+    }
 
-        final Token notToken = currentToken;
-        if (accept(Token.Kind.NOT)) {
-            return Command.newExpression(expression3(), notToken, null);
-        } else if (accept(Token.Kind.OPEN_PAREN)) {
-            final Expression exp0 = expression0();
-            expect(Token.Kind.CLOSE_PAREN);
-            return exp0;
-        } else if (have(NonTerminal.DESIGNATOR)) {
-            return new Dereference(linNum, charPos, designator());
-        } else if (have(NonTerminal.CALL_EXPRESSION)) {
-            return call_expression();
-        } else if (have(NonTerminal.LITERAL)) {
-            return literal();
-        } else {
-            return new Error(linNum, charPos, "invalid expression");
+    // Applies the operators above bottom that bind at least as tightly as
+    // level, left to right
+    private static void reduce(ArrayList<Expression> operands, ArrayList<Token> operators, int bottom, int level) {
+        while (operators.size() > bottom && level(operators.get(operators.size() - 1)) >= level) {
+            final Token op = operators.remove(operators.size() - 1);
+            final Expression right = operands.remove(operands.size() - 1);
+            final Expression left = operands.remove(operands.size() - 1);
+            operands.add(Command.newExpression(left, op, right));
         }
     }
 
@@ -363,7 +794,14 @@ public class Parser {
         final ExpressionList expressionList = expression_list();
         expect(Token.Kind.CLOSE_PAREN);
 
-        return new Call(linNum, charPos, symbol, expressionList);
+        return newCall(linNum, charPos, symbol, expressionList);
+    }
+
+    private Call newCall(int linNum, int charPos, Symbol function, ExpressionList arguments) {
+        if (callees != null) {
+            callees.add(function);
+        }
+        return new Call(linNum, charPos, function, arguments);
     }
 
     // expression-list := [ expression0 { "," expression0 } ] .
@@ -434,9 +872,9 @@ public class Parser {
         }
         expect(Token.Kind.SEMICOLON);
 
-        ArrayType arrayType = new ArrayType(stack.pop(), baseType);
+        ArrayType arrayType = ArrayType.of(stack.pop(), baseType);
         while (!stack.empty()) {
-            arrayType = new ArrayType(stack.pop(), arrayType);
+            arrayType = ArrayType.of(stack.pop(), arrayType);
         }
 
         symbol.setType(arrayType);
@@ -456,12 +894,12 @@ public class Parser {
         expect(Token.Kind.CLOSE_PAREN);
         expect(Token.Kind.COLON);
 
-        final TypeList args = new TypeList();
+        final List<Type> args = new ArrayList<>();
         for (final Symbol s : parameters) {
-            args.append(s.type());
+            args.add(s.type());
         }
-        symbolFunc.setType(new FuncType(args, type()));
-        final StatementList statements = statement_block();
+        symbolFunc.setType(FuncType.of(TypeList.of(args), type()));
+        final StatementList statements = bodies == null ? statement_block() : skip_block(symbolFunc);
         exitScope();
 
         return new FunctionDefinition(linNum, charPos, symbolFunc, parameters, statements);
@@ -472,12 +910,16 @@ public class Parser {
         final int linNum = lineNumber();
         final int charPos = charPosition();
 
-        if (have(NonTerminal.VARIABLE_DECLARATION)) {
-            return variable_declaration();
-        } else if (have(NonTerminal.ARRAY_DECLARATION)) {
-            return array_declaration();
-        } else if (have(NonTerminal.FUNCTION_DEFINITION)) {
-            return function_definition();
+        final NonTerminal alternative = NonTerminal.DECLARATION.predict(currentToken.kind());
+        if (alternative != null) {
+            switch (alternative) {
+                case VARIABLE_DECLARATION:
+                    return variable_declaration();
+                case ARRAY_DECLARATION:
+                    return array_declaration();
+                case FUNCTION_DEFINITION:
+                    return function_definition();
+            }
         }
         return new Error(linNum, charPos, "invalid declaration");
     }
@@ -485,10 +927,27 @@ public class Parser {
     // declaration-list := { declaration } .
     private DeclarationList declaration_list() {
         final DeclarationList declarationList = new DeclarationList(lineNumber(), charPosition());
+        declarations(declarationList);
+        return declarationList;
+    }
+
+    private void declarations(DeclarationList declarationList) {
         while (have(NonTerminal.DECLARATION)) {
-            declarationList.add(declaration());
+            declarationList.add(recoverDeclaration());
+        }
+    }
+
+    private Declaration recoverDeclaration() {
+        final int linNum = lineNumber();
+        final int charPos = charPosition();
+        final SymbolTable scope = currentSymbolTable;
+        try {
+            return declaration();
+        } catch (QuitParseException q) {
+            currentSymbolTable = scope;
+            synchronizeDeclaration();
+            return new Error(linNum, charPos, "invalid declaration");
         }
-        return declarationList;
     }
 
     // assignment-statement := "let" designator "=" expression0 ";" .
@@ -557,7 +1016,6 @@ public class Parser {
     }
 
     // statement := variable-declaration
-    //        | array-declaration
     //        | call-statement
     //        | assignment-statement
     //        | if-statement
@@ -566,32 +1024,46 @@ public class Parser {
     private Statement statement() {
         final int linNum = lineNumber();
         final int charPos = charPosition();
-        if (have(NonTerminal.VARIABLE_DECLARATION)) {
-            return variable_declaration();
-        } else if (have(NonTerminal.ARRAY_DECLARATION)) {
-            return array_declaration();
-        } else if (have(NonTerminal.CALL_STATEMENT)) {
-            return call_statement();
-        } else if (have(NonTerminal.ASSIGNMENT_STATEMENT)) {
-            return assignment_statement();
-        } else if (have(NonTerminal.IF_STATEMENT)) {
-            return if_statement();
-        } else if (have(NonTerminal.WHILE_STATEMENT)) {
-            return while_statement();
-        } else if (have(NonTerminal.RETURN_STATEMENT)) {
-            return return_statement();
-        } else {
-            return new Error(linNum, charPos, "invalid statement");
+        final NonTerminal alternative = NonTerminal.STATEMENT.predict(currentToken.kind());
+        if (alternative != null) {
+            switch (alternative) {
+                case VARIABLE_DECLARATION:
+                    return variable_declaration();
+                case CALL_STATEMENT:
+                    return call_statement();
+                case ASSIGNMENT_STATEMENT:
+                    return assignment_statement();
+                case IF_STATEMENT:
+                    return if_statement();
+                case WHILE_STATEMENT:
+                    return while_statement();
+                case RETURN_STATEMENT:
+                    return return_statement();
+            }
         }
+        return new Error(linNum, charPos, "invalid statement");
     }
 
     // statement-list := { statement } .
     private StatementList statement_list() {
         final StatementList statements = new StatementList(lineNumber(), charPosition());
+        statements(statements);
+        return statements;
+    }
+
+    private void statements(StatementList statements) {
         while (have(NonTerminal.STATEMENT)) {
-            statements.add(statement());
+            final int linNum = lineNumber();
+            final int charPos = charPosition();
+            final SymbolTable scope = currentSymbolTable;
+            try {
+                statements.add(statement());
+            } catch (QuitParseException q) {
+                currentSymbolTable = scope;
+                synchronizeStatement();
+                statements.add(new Error(linNum, charPos, "invalid statement"));
+            }
         }
-        return statements;
     }
 
     // statement-block := "{" statement-list "}" .
@@ -602,10 +1074,42 @@ public class Parser {
         return statements;
     }
 
+    // In the first pass of parse(threads), skips a statement-block and
+    // records it for a worker, which adds its statements to the list
+    // returned here
+    private StatementList skip_block(Symbol function) {
+        final int start = tokens.position() - 1;
+        expect(Token.Kind.OPEN_BRACE);
+        final StatementList statements = new StatementList(lineNumber(), charPosition());
+        int depth = 1;
+        int nodes = 0;
+        while (depth > 0) {
+            nodes += maxNodes(currentToken.kind());
+            if (have(Token.Kind.EOF)) {
+                throw reportSyntaxError(Token.Kind.CLOSE_BRACE);
+            } else if (have(Token.Kind.OPEN_BRACE)) {
+                depth++;
+            } else if (have(Token.Kind.CLOSE_BRACE)) {
+                depth--;
+            }
+            currentToken = scanner.next();
+        }
+        final int end = tokens.position() - 1;
+        bodies.add(new Body(function, statements, currentSymbolTable, currentSymbolTable.getParent().size(), start,
+                end, nodes));
+        return statements;
+    }
+
     // program := declaration-list EOF .
     private DeclarationList program() {
         final DeclarationList declarationList = declaration_list();
-        expect(Token.Kind.EOF);
+        while (!have(Token.Kind.EOF)) {
+            // report the stray token, then carry on at the next declaration
+            reportSyntaxError(Token.Kind.EOF);
+            currentToken = scanner.next();
+            synchronizeDeclaration();
+            declarations(declarationList);
+        }
         return declarationList;
     }
 
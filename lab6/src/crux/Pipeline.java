@@ -0,0 +1,179 @@
+package crux;
+
+import ast.Command;
+import ast.Declaration;
+import ast.DeclarationList;
+import mips.CodeGen;
+import mips.Program;
+import types.TypeChecker;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicReference;
+
+// Compiles one source with its phases overlapped. A scanner thread feeds
+// tokens to a parser thread, which hands each top-level declaration to a
+// type-checking thread as soon as it is parsed, which hands it on to
+// CodeGen on the calling thread as soon as it is checked. The stages are
+// connected by RingBuffers.
+//
+// Each declaration only refers to symbols declared before it, whose types
+// the parser has already set, so it can be checked and generated before
+// the rest of the source is parsed. Only what the serial compile would have
+// reached is passed on: nothing after the first syntax error is checked,
+// and nothing after the first type error is generated. The diagnostics and
+// the assembly are those of Compiler.compile.
+public class Pipeline {
+
+    private static final int TOKENS = 1 << 12;
+    private static final int DECLARATIONS = 1 << 6;
+
+    // Like Compiler.compile: returns 0 or the exit status of crux.Compiler
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err,
+                              Options options) {
+        final Scanner scanner;
+        try {
+            scanner = new Scanner(new FileReader(sourceFilename));
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            return -2;
+        }
+
+        final RingBuffer<Token> tokens = new RingBuffer<>(TOKENS);
+        final RingBuffer<Command> parsed = new RingBuffer<>(DECLARATIONS);
+        final RingBuffer<Command> checked = new RingBuffer<>(DECLARATIONS);
+        final AtomicReference<Throwable> failure = new AtomicReference<>();
+        final Parser[] parser = new Parser[1];
+        final TypeChecker tc = new TypeChecker();
+        tc.setMaxErrors(options.maxErrors());
+
+        final Thread scan = stage("scan", failure, () -> {
+            try {
+                Token token;
+                do {
+                    token = scanner.next();
+                } while (tokens.put(token) && !token.is(Token.Kind.EOF));
+            } finally {
+                tokens.close();
+            }
+        });
+
+        // the DeclarationList goes first, so CodeGen can begin the program
+        final Thread parse = stage("parse", failure, () -> {
+            try {
+                final Parser p = new Parser(tokens::take);
+                p.setMaxErrors(options.maxErrors());
+                parser[0] = p;
+                parsed.put(p.begin());
+                for (Declaration declaration = p.nextDeclaration(); declaration != null;
+                     declaration = p.nextDeclaration()) {
+                    if (!p.hasError()) {
+                        parsed.put((Command) declaration);
+                    }
+                }
+            } finally {
+                parsed.close();
+                tokens.close();
+            }
+        });
+
+        final Thread check = stage("check", failure, () -> {
+            try {
+                Command command = parsed.take();
+                if (command != null) {
+                    checked.put(command);
+                }
+                while ((command = parsed.take()) != null) {
+                    tc.check(command);
+                    if (!tc.hasError()) {
+                        checked.put(command);
+                    }
+                }
+            } finally {
+                checked.close();
+                parsed.close();
+            }
+        });
+
+        final CodeGen cg = new CodeGen(tc);
+        cg.setMaxErrors(options.maxErrors());
+        try {
+            final DeclarationList declarations = (DeclarationList) checked.take();
+            if (asmFilename != null && declarations != null) {
+                cg.begin(declarations);
+                for (Command command = checked.take(); command != null; command = checked.take()) {
+                    if (!cg.append((Declaration) command)) {
+                        break;
+                    }
+                }
+                cg.end(declarations);
+            }
+        } finally {
+            checked.close();
+        }
+
+        try {
+            scan.join();
+            parse.join();
+            check.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        }
+        if (failure.get() != null) {
+            throw new IllegalStateException("A compiler stage failed", failure.get());
+        }
+
+        final Parser p = parser[0];
+        if (p.hasError()) {
+            out.println("Error parsing file " + sourceFilename);
+            out.println(p.errorReport());
+            return -3;
+        }
+
+        if (tc.hasError()) {
+            out.println("Error type-checking file " + sourceFilename);
+            out.println(tc.errorReport());
+            return -4;
+        }
+
+        if (asmFilename == null) {
+            return 0;
+        }
+
+        if (cg.hasError()) {
+            out.println("Error generating code for file " + sourceFilename);
+            out.println(cg.errorReport());
+            return -5;
+        }
+
+        try {
+            Program prog = cg.getProgram();
+            PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(asmFilename), 1 << 16));
+            prog.print(ps);
+            ps.close();
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error writing assembly file: \"" + asmFilename + "\"");
+            return -6;
+        }
+        return 0;
+    }
+
+    private static Thread stage(String name, AtomicReference<Throwable> failure, Runnable body) {
+        final Thread thread = new Thread(() -> {
+            try {
+                body.run();
+            } catch (Throwable t) {
+                failure.compareAndSet(null, t);
+            }
+        }, "crux-" + name);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+}
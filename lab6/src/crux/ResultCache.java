@@ -0,0 +1,211 @@
+package crux;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicLong;
+
+// A content-addressed store of compile results. The key is a hash of the
+// source bytes, the compiler version and the options, and the value is
+// everything a compile produces: its status, its diagnostics and its
+// assembly. The store is bounded in size and evicts the least recently used
+// entries first; an entry's modification time is its last use.
+public class ResultCache {
+
+    private static final String ENTRY = ".result";
+    private static final String STATS = "stats";
+
+    private final Path dir;
+    private final long maxBytes;
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public ResultCache(Path dir, long maxBytes) {
+        this.dir = dir;
+        this.maxBytes = maxBytes;
+    }
+
+    public static class Result {
+
+        private final int status;
+        private final byte[] stdout;
+        private final byte[] stderr;
+        private final byte[] asm;
+
+        public Result(int status, byte[] stdout, byte[] stderr, byte[] asm) {
+            this.status = status;
+            this.stdout = stdout;
+            this.stderr = stderr;
+            this.asm = asm;
+        }
+
+        public int status() {
+            return status;
+        }
+
+        public byte[] stdout() {
+            return stdout;
+        }
+
+        public byte[] stderr() {
+            return stderr;
+        }
+
+        // The assembly, or an empty array if none was written
+        public byte[] asm() {
+            return asm;
+        }
+    }
+
+    public String key(byte[] source, String options) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            digest.update((Compiler.VERSION + "\0" + options + "\0").getBytes(StandardCharsets.UTF_8));
+            digest.update(source);
+            final StringBuilder hex = new StringBuilder();
+            for (byte b : digest.digest()) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Returns the cached result for a key, or null on a miss
+    public Result lookup(String key) {
+        final Path file = dir.resolve(key + ENTRY);
+        try (DataInputStream in = new DataInputStream(Files.newInputStream(file))) {
+            final Result result = new Result(in.readInt(), readBytes(in), readBytes(in), readBytes(in));
+            Files.setLastModifiedTime(file, FileTime.fromMillis(System.currentTimeMillis()));
+            hits.incrementAndGet();
+            return result;
+        } catch (IOException e) {
+            misses.incrementAndGet();
+            return null;
+        }
+    }
+
+    public void store(String key, Result result) {
+        try {
+            Files.createDirectories(dir);
+            final Path temp = Files.createTempFile(dir, key, ".tmp");
+            try (DataOutputStream out = new DataOutputStream(Files.newOutputStream(temp))) {
+                out.writeInt(result.status);
+                writeBytes(out, result.stdout);
+                writeBytes(out, result.stderr);
+                writeBytes(out, result.asm);
+            }
+            Files.move(temp, dir.resolve(key + ENTRY), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            evict();
+        } catch (IOException e) {
+            // a result that cannot be stored is compiled again next time
+        }
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        final byte[] bytes = new byte[in.readInt()];
+        in.readFully(bytes);
+        return bytes;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    // Removes the least recently used entries until the store fits
+    private void evict() throws IOException {
+        final ArrayList<Path> entries = new ArrayList<>();
+        long size = 0;
+        try (DirectoryStream<Path> files = Files.newDirectoryStream(dir, "*" + ENTRY)) {
+            for (Path file : files) {
+                entries.add(file);
+                size += sizeOf(file);
+            }
+        }
+        if (size <= maxBytes) {
+            return;
+        }
+
+        entries.sort(Comparator.comparingLong(ResultCache::lastUsed));
+        for (Path file : entries) {
+            if (size <= maxBytes) {
+                break;
+            }
+            size -= sizeOf(file);
+            Files.deleteIfExists(file);
+        }
+    }
+
+    private static long sizeOf(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    private static long lastUsed(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    // Statistics ====================================
+
+    public long hits() {
+        return hits.get();
+    }
+
+    public long misses() {
+        return misses.get();
+    }
+
+    // Adds the hits and misses since the last call to the totals kept in the
+    // store, and returns the new totals as {hits, misses}
+    public long[] recordStatistics() {
+        try {
+            Files.createDirectories(dir);
+            try (FileChannel channel = FileChannel.open(dir.resolve(STATS),
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+                 FileLock lock = channel.lock()) {
+                // the totals are read and written back under the lock
+                assert lock.isValid();
+                final ByteBuffer buffer = ByteBuffer.allocate(16);
+                long totalHits = 0;
+                long totalMisses = 0;
+                if (channel.read(buffer, 0) == 16) {
+                    buffer.flip();
+                    totalHits = buffer.getLong();
+                    totalMisses = buffer.getLong();
+                }
+                totalHits += hits.getAndSet(0);
+                totalMisses += misses.getAndSet(0);
+                buffer.clear();
+                buffer.putLong(totalHits).putLong(totalMisses).flip();
+                channel.write(buffer, 0);
+                return new long[]{totalHits, totalMisses};
+            }
+        } catch (IOException e) {
+            return new long[]{hits.get(), misses.get()};
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package crux;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+// A bounded queue between exactly one producer thread and one consumer
+// thread. Each side writes only its own index and rereads the other's only
+// when the ring looks full or empty, so neither locks nor compare-and-set
+// are needed. A side that has to wait spins briefly, then yields, then
+// sleeps in short parks.
+//
+// Either side may close the ring: the producer when it has nothing more to
+// put, the consumer when it stops taking. put() then returns false, and
+// take() returns null once the items already put are taken.
+class RingBuffer<T> {
+
+    private final Object[] slots;
+    private final int mask;
+    // the next index to take, written only by the consumer
+    private final AtomicLong head = new AtomicLong();
+    // the next index to put, written only by the producer
+    private final AtomicLong tail = new AtomicLong();
+    private volatile boolean closed;
+
+    // each side's last reading of the other side's index
+    private long headSeen;
+    private long tailSeen;
+
+    RingBuffer(int capacity) {
+        if (Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("The capacity must be a power of two: " + capacity);
+        }
+        slots = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    boolean put(T item) {
+        final long t = tail.get();
+        int waits = 0;
+        while (t - headSeen == slots.length) {
+            headSeen = head.get();
+            if (t - headSeen == slots.length) {
+                if (closed) {
+                    return false;
+                }
+                idle(waits++);
+            }
+        }
+        if (closed) {
+            return false;
+        }
+        slots[(int) t & mask] = item;
+        tail.lazySet(t + 1);
+        return true;
+    }
+
+    @SuppressWarnings("unchecked")
+    T take() {
+        final long h = head.get();
+        int waits = 0;
+        while (h == tailSeen) {
+            tailSeen = tail.get();
+            if (h == tailSeen) {
+                if (closed) {
+                    // the last items may have been put just before the close
+                    tailSeen = tail.get();
+                    if (h == tailSeen) {
+                        return null;
+                    }
+                    break;
+                }
+                idle(waits++);
+            }
+        }
+        final int slot = (int) h & mask;
+        final T item = (T) slots[slot];
+        slots[slot] = null;
+        head.lazySet(h + 1);
+        return item;
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    private static void idle(int waits) {
+        if (waits < 64) {
+            Thread.onSpinWait();
+        } else if (waits < 128) {
+            Thread.yield();
+        } else {
+            LockSupport.parkNanos(20_000);
+        }
+    }
+}
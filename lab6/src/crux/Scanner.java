@@ -4,7 +4,7 @@ import java.io.IOException;
 import java.io.Reader;
 import java.util.Iterator;
 
-public class Scanner implements Iterable<Token> {
+public class Scanner implements Iterable<Token>, TokenSource {
 
     public static String studentName = "Darshan Parajuli";
     public static String studentID = "16602518";
@@ -18,7 +18,12 @@ public class Scanner implements Iterable<Token> {
     private State mNextState;
 
     public Scanner(Reader reader) {
-        lineNum = 1;
+        this(reader, 1);
+    }
+
+    // Scans text that starts at the beginning of the given line of a source
+    public Scanner(Reader reader, int lineNum) {
+        this.lineNum = lineNum;
         charPos = 0;
         input = reader;
         mNextState = State.START;
@@ -38,6 +43,7 @@ public class Scanner implements Iterable<Token> {
      *  1. call assumes that nextChar is already holding an unread character
      *  2. return leaves nextChar containing an untokenized character
      */
+    @Override
     public Token next() {
         final StringBuilder lexeme = new StringBuilder();
         while (mNextState != State.FINISH) {
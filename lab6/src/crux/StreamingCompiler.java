@@ -0,0 +1,132 @@
+package crux;
+
+import ast.Command;
+import ast.Declaration;
+import ast.DeclarationList;
+import mips.CodeGen;
+import mips.Program;
+import types.TypeChecker;
+
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+// Compiles one source a top-level declaration at a time, in bounded memory.
+// Each declaration is parsed, checked and generated, its code is written
+// out, and then its tree and its types are released; only the symbols of
+// the globals and the global frame stay behind, so the heap needed does not
+// grow with the source.
+//
+// The data segment comes first in the assembly but is only complete at the
+// end, so the code is written to a temporary file beside the .asm and
+// copied in after it. The diagnostics and the assembly are those of
+// Compiler.compile.
+public class StreamingCompiler {
+
+    // Like Compiler.compile: returns 0 or the exit status of crux.Compiler
+    public static int compile(String sourceFilename, String asmFilename, PrintStream out, PrintStream err,
+                              Options options) {
+        final Scanner scanner;
+        try {
+            scanner = new Scanner(new FileReader(sourceFilename));
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            return -2;
+        }
+
+        Path text = null;
+        PrintStream code = null;
+        try {
+            if (asmFilename != null) {
+                final Path asm = Paths.get(asmFilename).toAbsolutePath();
+                text = Files.createTempFile(asm.getParent(), asm.getFileName().toString(), ".text");
+                code = new PrintStream(new BufferedOutputStream(Files.newOutputStream(text), 1 << 16));
+            }
+            return compile(sourceFilename, scanner, asmFilename, code, text, out, options);
+        } catch (IOException e) {
+            e.printStackTrace(err);
+            err.println("Error writing assembly file: \"" + asmFilename + "\"");
+            return -6;
+        } finally {
+            if (text != null) {
+                code.close();
+                try {
+                    Files.deleteIfExists(text);
+                } catch (IOException e) {
+                    // only a leftover temporary file
+                }
+            }
+        }
+    }
+
+    private static int compile(String sourceFilename, Scanner scanner, String asmFilename, PrintStream code,
+                               Path text, PrintStream out, Options options) throws IOException {
+        final Parser p = new Parser(scanner);
+        p.setMaxErrors(options.maxErrors());
+        final TypeChecker tc = new TypeChecker();
+        tc.setMaxErrors(options.maxErrors());
+        final CodeGen cg = new CodeGen(tc);
+        cg.setMaxErrors(options.maxErrors());
+        final Program prog = cg.getProgram();
+
+        // nothing after the first syntax error is checked, and nothing after
+        // the first type error is generated, but every declaration is parsed
+        // and every one parsed without error is checked, for the error report
+        final DeclarationList declarations = p.begin();
+        boolean generating = code != null;
+        if (generating) {
+            cg.begin(declarations);
+        }
+        for (Declaration declaration = p.takeDeclaration(); declaration != null;
+             declaration = p.takeDeclaration()) {
+            if (p.hasError()) {
+                continue;
+            }
+            tc.check((Command) declaration);
+            generating = generating && !tc.hasError() && cg.append(declaration);
+            if (generating) {
+                prog.flushCode(code);
+            }
+            tc.release();
+        }
+
+        if (p.hasError()) {
+            out.println("Error parsing file " + sourceFilename);
+            out.println(p.errorReport());
+            return -3;
+        }
+
+        if (tc.hasError()) {
+            out.println("Error type-checking file " + sourceFilename);
+            out.println(tc.errorReport());
+            return -4;
+        }
+
+        if (asmFilename == null) {
+            return 0;
+        }
+
+        if (cg.hasError()) {
+            out.println("Error generating code for file " + sourceFilename);
+            out.println(cg.errorReport());
+            return -5;
+        }
+
+        cg.end(declarations);
+        prog.flushCode(code);
+        code.flush();
+
+        final PrintStream ps = new PrintStream(new BufferedOutputStream(new FileOutputStream(asmFilename), 1 << 16));
+        prog.printData(ps);
+        Files.copy(text, ps);
+        prog.printEnd(ps);
+        ps.close();
+        return 0;
+    }
+}
@@ -3,14 +3,18 @@ package crux;
 import types.ErrorType;
 import types.Type;
 
+import java.util.function.Supplier;
+
 public class Symbol {
 
+    private static final Type NOT_SET = new ErrorType("Type not set.");
+
     private String name;
     private Type type;
 
     public Symbol(String name) {
         this.name = name;
-        this.type = new ErrorType("Type not set.");
+        this.type = NOT_SET;
     }
 
     public String name() {
@@ -25,8 +29,12 @@ public class Symbol {
         return type;
     }
 
+    boolean hasType() {
+        return type != NOT_SET;
+    }
+
     public String toString() {
-        return "Symbol(" + name + ":" + type + ")";
+        return "Symbol(" + name() + ":" + type + ")";
     }
 
     public static Symbol newError(String message) {
@@ -36,7 +44,26 @@ public class Symbol {
 
 class ErrorSymbol extends Symbol {
 
+    private Supplier<String> format;
+    private String message;
+
     public ErrorSymbol(String message) {
         super(message);
+        this.message = message;
+    }
+
+    // Named by its error message, built the first time it is read
+    public ErrorSymbol(Supplier<String> format) {
+        super(null);
+        this.format = format;
+    }
+
+    @Override
+    public String name() {
+        if (message == null) {
+            message = format.get();
+            format = null;
+        }
+        return message;
     }
 }
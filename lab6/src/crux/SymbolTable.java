@@ -1,5 +1,6 @@
 package crux;
 
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 
@@ -9,6 +10,12 @@ public class SymbolTable {
     private int depth;
 
     private Map<String, Symbol> map;
+    private Symbol last;
+
+    // the insertion index of each symbol, once a prefix has been taken; a
+    // prefix shows only the symbols below its limit
+    private Map<String, Integer> positions;
+    private int limit = Integer.MAX_VALUE;
 
     public SymbolTable() {
         parent = null;
@@ -17,10 +24,10 @@ public class SymbolTable {
     }
 
     public Symbol lookup(String name) throws SymbolNotFoundError {
-        Symbol symbol = map.get(name);
+        Symbol symbol = get(name);
         SymbolTable myParent = parent;
         while (symbol == null && myParent != null) {
-            symbol = myParent.map.get(name);
+            symbol = myParent.get(name);
             myParent = myParent.parent;
         }
 
@@ -31,11 +38,23 @@ public class SymbolTable {
         return symbol;
     }
 
+    private Symbol get(String name) {
+        final Symbol symbol = map.get(name);
+        if (symbol != null && limit != Integer.MAX_VALUE && positions.get(name) >= limit) {
+            return null;
+        }
+        return symbol;
+    }
+
     public Symbol insert(String name) throws RedeclarationError {
         Symbol symbol = map.get(name);
         if (symbol == null) {
             symbol = new Symbol(name);
+            if (positions != null) {
+                positions.put(name, map.size());
+            }
             map.put(name, symbol);
+            last = symbol;
         } else {
             throw new RedeclarationError(symbol);
         }
@@ -60,6 +79,75 @@ public class SymbolTable {
         return sb.toString();
     }
 
+    // The symbols in scope now, printed as toString() would print them now.
+    // Only the count of each table is recorded, since tables only grow and
+    // a symbol's type is set before the next one is inserted next to it.
+    public Object snapshot() {
+        final SymbolTable[] tables = new SymbolTable[depth + 1];
+        final int[] sizes = new int[depth + 1];
+        final boolean[] typed = new boolean[depth + 1];
+        int i = depth;
+        for (SymbolTable table = this; table != null && i >= 0; table = table.parent, i--) {
+            tables[i] = table;
+            sizes[i] = Math.min(table.map.size(), table.limit);
+            // a prefix is only taken of symbols that already have types
+            typed[i] = sizes[i] == 0 || table.last == null || table.last.hasType();
+        }
+        return new Object() {
+            @Override
+            public String toString() {
+                final StringBuilder sb = new StringBuilder();
+                for (int i = 0; i < tables.length; i++) {
+                    if (tables[i] != null) {
+                        tables[i].append(sb, sizes[i], typed[i]);
+                    }
+                }
+                return sb.toString();
+            }
+        };
+    }
+
+    private void append(StringBuilder sb, int size, boolean lastTyped) {
+        String indent = "";
+        for (int i = 0; i < depth; i++) {
+            indent += "  ";
+        }
+
+        int n = 0;
+        for (Symbol s : map.values()) {
+            if (n++ == size) {
+                break;
+            }
+            final Symbol printed = n == size && !lastTyped ? new Symbol(s.name()) : s;
+            sb.append(indent)
+                    .append(printed.toString())
+                    .append("\n");
+        }
+    }
+
+    public int size() {
+        return map.size();
+    }
+
+    // A read-only view of this table as it was when it held count symbols,
+    // with the same parent. Lookups through it may run on several threads
+    // once this table is no longer inserted into.
+    public SymbolTable prefix(int count) {
+        if (positions == null) {
+            positions = new HashMap<>();
+            for (String name : map.keySet()) {
+                positions.put(name, positions.size());
+            }
+        }
+        final SymbolTable view = new SymbolTable();
+        view.parent = parent;
+        view.depth = depth;
+        view.map = map;
+        view.positions = positions;
+        view.limit = count;
+        return view;
+    }
+
     public void setParent(SymbolTable parent) {
         this.parent = parent;
     }
@@ -0,0 +1,9 @@
+package crux;
+
+// Where the Parser reads its tokens from: a Scanner over a reader, or a
+// ParallelScanner that has already scanned the whole source. Tokens come in
+// source order, ending with one EOF; next() returns null after that.
+public interface TokenSource {
+
+    Token next();
+}
@@ -0,0 +1,697 @@
+package interp;
+
+import ast.*;
+import ast.Error;
+import crux.Diagnostics;
+import crux.Parser;
+import crux.Scanner;
+import crux.Symbol;
+import mips.Simulator;
+import types.*;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.util.IdentityHashMap;
+
+// Runs a type-checked crux AST without generating code. The tree is compiled
+// once into closures specialized on node kind and value type, and every
+// variable is resolved to a word offset in its frame (or in the globals) the
+// way ActivationRecord lays out the stack, so nothing is looked up by name
+// while the program runs. Floats are stored in the int slots as raw bits.
+public class Interpreter implements CommandVisitor {
+
+    // Compiled Code ===================================
+
+    interface IntCode {
+        int eval(Frame frame);
+    }
+
+    interface FloatCode {
+        float eval(Frame frame);
+    }
+
+    // Returns true when a return statement was executed
+    interface StatementCode {
+        boolean exec(Frame frame);
+    }
+
+    static final class Frame {
+
+        final int[] slots;
+        int result;
+
+        Frame(int size) {
+            slots = new int[size];
+        }
+    }
+
+    private static final class Function {
+
+        private final String name;
+        private int frameSize;
+        private StatementCode body;
+
+        private Function(String name) {
+            this.name = name;
+        }
+    }
+
+    public static class InterpreterException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public InterpreterException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    // Deep crux recursion runs on a thread with a large stack
+    private static final long STACK_SIZE = 1L << 30;
+
+    private Diagnostics diagnostics = new Diagnostics();
+    private TypeChecker tc;
+
+    private final IdentityHashMap<Symbol, Integer> globalSlots = new IdentityHashMap<>();
+    private final IdentityHashMap<Symbol, Function> functions = new IdentityHashMap<>();
+    private IdentityHashMap<Symbol, Integer> localSlots;
+    private int globalSize;
+    private int frameSize;
+
+    // result of the last visit, and whether an address it computes is global
+    private Object code;
+    private boolean global;
+
+    private int[] globals;
+    private BufferedReader in;
+    private PrintStream out;
+
+    public Interpreter(TypeChecker tc) {
+        this.tc = tc;
+    }
+
+    public boolean hasError() {
+        return diagnostics.hasError();
+    }
+
+    public String errorReport() {
+        return diagnostics.report();
+    }
+
+    // Closures are compiled recursively, so the program is compiled on a
+    // thread with a large stack, as it is run
+    public boolean prepare(Command ast) {
+        final boolean[] prepared = new boolean[1];
+        onLargeStack("crux-prepare", () -> {
+            try {
+                ast.accept(this);
+                prepared[0] = !hasError();
+            } catch (InterpreterException e) {
+                // recorded in the error buffer
+            } catch (StackOverflowError e) {
+                final String message = "Interpreter cannot prepare " + ast + ": expressions nested too deeply.";
+                diagnostics.report(Diagnostics.Code.MESSAGE, ast.lineNumber(), ast.charPosition(), message);
+            }
+        });
+        return prepared[0];
+    }
+
+    public void run(InputStream input, PrintStream output) {
+        Function main = null;
+        for (Function function : functions.values()) {
+            if (function.name.equals("main")) {
+                main = function;
+            }
+        }
+        if (main == null) {
+            throw new InterpreterException("Program has no main function.");
+        }
+
+        globals = new int[globalSize];
+        in = new BufferedReader(new InputStreamReader(input));
+        out = new PrintStream(new BufferedOutputStream(output, 1 << 16), false);
+
+        final Function entry = main;
+        final RuntimeException[] failure = new RuntimeException[1];
+        try {
+            onLargeStack("crux-main", () -> {
+                try {
+                    entry.body.exec(new Frame(entry.frameSize));
+                } catch (ArithmeticException e) {
+                    failure[0] = new InterpreterException("Arithmetic error: " + e.getMessage() + ".");
+                } catch (ArrayIndexOutOfBoundsException e) {
+                    failure[0] = new InterpreterException("Address out of range: " + e.getMessage() + ".");
+                } catch (StackOverflowError e) {
+                    failure[0] = new InterpreterException("Stack overflow.");
+                } catch (RuntimeException e) {
+                    failure[0] = e;
+                }
+            });
+        } finally {
+            out.flush();
+        }
+        if (failure[0] != null) {
+            throw failure[0];
+        }
+    }
+
+    // Runs body on a thread with a STACK_SIZE stack and waits for it
+    private static void onLargeStack(String name, Runnable body) {
+        final Thread thread = new Thread(null, body, name, STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private InterpreterException error(Command node, String what) {
+        final String message = "Interpreter cannot run " + what + " " + node.toString();
+        diagnostics.report(Diagnostics.Code.MESSAGE, node.lineNumber(), node.charPosition(), message);
+        return new InterpreterException(message);
+    }
+
+    // Compiling =======================================
+
+    private Object compile(Visitable node) {
+        node.accept(this);
+        return code;
+    }
+
+    private boolean isFloat(Visitable node) {
+        return tc.getType(node) instanceof FloatType;
+    }
+
+    private IntCode intCode(Expression expression) {
+        return (IntCode) compile(expression);
+    }
+
+    private FloatCode floatCode(Expression expression) {
+        return (FloatCode) compile(expression);
+    }
+
+    // Any value as the bits stored in a slot
+    private IntCode slotCode(Expression expression) {
+        if (isFloat(expression)) {
+            final FloatCode c = floatCode(expression);
+            return f -> Float.floatToRawIntBits(c.eval(f));
+        }
+        return intCode(expression);
+    }
+
+    private static int numSlots(Type type) {
+        if (type instanceof ArrayType) {
+            final ArrayType aType = (ArrayType) type;
+            return aType.extent() * numSlots(aType.base());
+        }
+        return 1;
+    }
+
+    private void declare(Symbol symbol) {
+        final int size = numSlots(symbol.type());
+        if (localSlots == null) {
+            globalSlots.put(symbol, globalSize);
+            globalSize += size;
+        } else {
+            localSlots.put(symbol, frameSize);
+            frameSize += size;
+        }
+    }
+
+    // I/O =============================================
+
+    private String readLine() {
+        out.flush();
+        try {
+            final String line = in.readLine();
+            return line == null ? "" : line.trim();
+        } catch (IOException e) {
+            throw new InterpreterException("Error reading input: " + e.getMessage());
+        }
+    }
+
+    private Object builtIn(Call node) {
+        final ExpressionList args = node.arguments();
+        switch (node.function().name()) {
+            case "readInt":
+                return (IntCode) f -> {
+                    out.print("int?");
+                    return Simulator.parseInt(readLine());
+                };
+            case "readFloat":
+                return (FloatCode) f -> {
+                    out.print("float?");
+                    return Simulator.parseFloat(readLine());
+                };
+            case "printBool": {
+                final IntCode arg = intCode(args.iterator().next());
+                return (StatementCode) f -> {
+                    out.print(arg.eval(f) != 0 ? "true" : "false");
+                    return false;
+                };
+            }
+            case "printInt": {
+                final IntCode arg = intCode(args.iterator().next());
+                return (StatementCode) f -> {
+                    out.print(arg.eval(f));
+                    return false;
+                };
+            }
+            case "printFloat": {
+                final FloatCode arg = floatCode(args.iterator().next());
+                return (StatementCode) f -> {
+                    out.print(Simulator.formatFloat(arg.eval(f)));
+                    return false;
+                };
+            }
+            case "println":
+                return (StatementCode) f -> {
+                    out.print('\n');
+                    return false;
+                };
+            default:
+                return null;
+        }
+    }
+
+    // Visitors ========================================
+
+    @Override
+    public void visit(ExpressionList node) {
+        throw error(node, "a bare");
+    }
+
+    @Override
+    public void visit(DeclarationList node) {
+        for (Declaration declaration : node) {
+            declaration.accept(this);
+        }
+        code = null;
+    }
+
+    @Override
+    public void visit(StatementList node) {
+        int count = 0;
+        for (Statement ignored : node) {
+            count++;
+        }
+        final StatementCode[] statements = new StatementCode[count];
+        int i = 0;
+        for (Statement statement : node) {
+            final Object c = compile(statement);
+            if (c instanceof StatementCode) {
+                statements[i++] = (StatementCode) c;
+            } else if (c instanceof IntCode) {
+                final IntCode value = (IntCode) c;
+                statements[i++] = f -> {
+                    value.eval(f);
+                    return false;
+                };
+            } else {
+                final FloatCode value = (FloatCode) c;
+                statements[i++] = f -> {
+                    value.eval(f);
+                    return false;
+                };
+            }
+        }
+        code = (StatementCode) f -> {
+            for (StatementCode statement : statements) {
+                if (statement.exec(f)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    @Override
+    public void visit(AddressOf node) {
+        final Integer local = localSlots == null ? null : localSlots.get(node.symbol());
+        global = local == null;
+        final int offset = global ? globalSlots.get(node.symbol()) : local;
+        code = (IntCode) f -> offset;
+    }
+
+    @Override
+    public void visit(LiteralBool node) {
+        final int value = node.value() == LiteralBool.Value.FALSE ? 0 : 1;
+        code = (IntCode) f -> value;
+    }
+
+    @Override
+    public void visit(LiteralFloat node) {
+        final float value = node.value();
+        code = (FloatCode) f -> value;
+    }
+
+    @Override
+    public void visit(LiteralInt node) {
+        final int value = node.value();
+        code = (IntCode) f -> value;
+    }
+
+    @Override
+    public void visit(VariableDeclaration node) {
+        declare(node.symbol());
+        code = (StatementCode) f -> false;
+    }
+
+    @Override
+    public void visit(ArrayDeclaration node) {
+        declare(node.symbol());
+        code = (StatementCode) f -> false;
+    }
+
+    @Override
+    public void visit(FunctionDefinition node) {
+        final Function function = new Function(node.function().name());
+        functions.put(node.function(), function);
+
+        localSlots = new IdentityHashMap<>();
+        frameSize = 0;
+        for (Symbol argument : node.arguments()) {
+            declare(argument);
+        }
+        function.body = (StatementCode) compile(node.body());
+        function.frameSize = frameSize;
+        localSlots = null;
+        code = null;
+    }
+
+    // spim traps on signed overflow of add and sub, and so does the simulator
+    @Override
+    public void visit(Addition node) {
+        if (isFloat(node)) {
+            final FloatCode l = floatCode(node.leftSide());
+            final FloatCode r = floatCode(node.rightSide());
+            code = (FloatCode) f -> l.eval(f) + r.eval(f);
+        } else {
+            final IntCode l = intCode(node.leftSide());
+            final IntCode r = intCode(node.rightSide());
+            code = (IntCode) f -> Math.addExact(l.eval(f), r.eval(f));
+        }
+    }
+
+    @Override
+    public void visit(Subtraction node) {
+        if (isFloat(node)) {
+            final FloatCode l = floatCode(node.leftSide());
+            final FloatCode r = floatCode(node.rightSide());
+            code = (FloatCode) f -> l.eval(f) - r.eval(f);
+        } else {
+            final IntCode l = intCode(node.leftSide());
+            final IntCode r = intCode(node.rightSide());
+            code = (IntCode) f -> Math.subtractExact(l.eval(f), r.eval(f));
+        }
+    }
+
+    @Override
+    public void visit(Multiplication node) {
+        if (isFloat(node)) {
+            final FloatCode l = floatCode(node.leftSide());
+            final FloatCode r = floatCode(node.rightSide());
+            code = (FloatCode) f -> l.eval(f) * r.eval(f);
+        } else {
+            final IntCode l = intCode(node.leftSide());
+            final IntCode r = intCode(node.rightSide());
+            code = (IntCode) f -> l.eval(f) * r.eval(f);
+        }
+    }
+
+    @Override
+    public void visit(Division node) {
+        if (isFloat(node)) {
+            final FloatCode l = floatCode(node.leftSide());
+            final FloatCode r = floatCode(node.rightSide());
+            code = (FloatCode) f -> l.eval(f) / r.eval(f);
+        } else {
+            final IntCode l = intCode(node.leftSide());
+            final IntCode r = intCode(node.rightSide());
+            code = (IntCode) f -> l.eval(f) / r.eval(f);
+        }
+    }
+
+    @Override
+    public void visit(LogicalAnd node) {
+        final IntCode l = intCode(node.leftSide());
+        final IntCode r = intCode(node.rightSide());
+        code = (IntCode) f -> l.eval(f) & r.eval(f);
+    }
+
+    @Override
+    public void visit(LogicalOr node) {
+        final IntCode l = intCode(node.leftSide());
+        final IntCode r = intCode(node.rightSide());
+        code = (IntCode) f -> l.eval(f) | r.eval(f);
+    }
+
+    @Override
+    public void visit(LogicalNot node) {
+        final IntCode e = intCode(node.expression());
+        code = (IntCode) f -> e.eval(f) == 0 ? 1 : 0;
+    }
+
+    @Override
+    public void visit(Comparison node) {
+        if (isFloat(node.leftSide())) {
+            final FloatCode l = floatCode(node.leftSide());
+            final FloatCode r = floatCode(node.rightSide());
+            switch (node.operation()) {
+                case GT:
+                    code = (IntCode) f -> l.eval(f) > r.eval(f) ? 1 : 0;
+                    break;
+                case GE:
+                    code = (IntCode) f -> l.eval(f) >= r.eval(f) ? 1 : 0;
+                    break;
+                case EQ:
+                    code = (IntCode) f -> l.eval(f) == r.eval(f) ? 1 : 0;
+                    break;
+                case NE:
+                    code = (IntCode) f -> l.eval(f) != r.eval(f) ? 1 : 0;
+                    break;
+                case LE:
+                    code = (IntCode) f -> l.eval(f) <= r.eval(f) ? 1 : 0;
+                    break;
+                case LT:
+                    code = (IntCode) f -> l.eval(f) < r.eval(f) ? 1 : 0;
+                    break;
+            }
+        } else {
+            final IntCode l = intCode(node.leftSide());
+            final IntCode r = intCode(node.rightSide());
+            switch (node.operation()) {
+                case GT:
+                    code = (IntCode) f -> l.eval(f) > r.eval(f) ? 1 : 0;
+                    break;
+                case GE:
+                    code = (IntCode) f -> l.eval(f) >= r.eval(f) ? 1 : 0;
+                    break;
+                case EQ:
+                    code = (IntCode) f -> l.eval(f) == r.eval(f) ? 1 : 0;
+                    break;
+                case NE:
+                    code = (IntCode) f -> l.eval(f) != r.eval(f) ? 1 : 0;
+                    break;
+                case LE:
+                    code = (IntCode) f -> l.eval(f) <= r.eval(f) ? 1 : 0;
+                    break;
+                case LT:
+                    code = (IntCode) f -> l.eval(f) < r.eval(f) ? 1 : 0;
+                    break;
+            }
+        }
+    }
+
+    @Override
+    public void visit(Dereference node) {
+        final IntCode load;
+        if (node.expression() instanceof AddressOf) {
+            // the common case of a scalar variable reads its slot directly
+            final int offset = ((IntCode) compile(node.expression())).eval(null);
+            load = global ? f -> globals[offset] : f -> f.slots[offset];
+        } else {
+            final IntCode address = intCode(node.expression());
+            load = global ? f -> globals[address.eval(f)] : f -> f.slots[address.eval(f)];
+        }
+        if (isFloat(node)) {
+            code = (FloatCode) f -> Float.intBitsToFloat(load.eval(f));
+        } else {
+            code = load;
+        }
+    }
+
+    @Override
+    public void visit(Index node) {
+        final IntCode base = intCode(node.base());
+        final boolean baseGlobal = global;
+        final IntCode amount = intCode(node.amount());
+        final int stride = numSlots(((AddressType) tc.getType(node)).base());
+        if (stride == 1) {
+            code = (IntCode) f -> base.eval(f) + amount.eval(f);
+        } else {
+            code = (IntCode) f -> base.eval(f) + amount.eval(f) * stride;
+        }
+        global = baseGlobal;
+    }
+
+    @Override
+    public void visit(Assignment node) {
+        final IntCode address = intCode(node.destination());
+        final boolean toGlobal = global;
+        final IntCode value = slotCode(node.source());
+        if (node.destination() instanceof AddressOf) {
+            final int offset = address.eval(null);
+            code = toGlobal
+                    ? (StatementCode) f -> {
+                        globals[offset] = value.eval(f);
+                        return false;
+                    }
+                    : (StatementCode) f -> {
+                        f.slots[offset] = value.eval(f);
+                        return false;
+                    };
+        } else {
+            code = toGlobal
+                    ? (StatementCode) f -> {
+                        final int a = address.eval(f);
+                        globals[a] = value.eval(f);
+                        return false;
+                    }
+                    : (StatementCode) f -> {
+                        final int a = address.eval(f);
+                        f.slots[a] = value.eval(f);
+                        return false;
+                    };
+        }
+    }
+
+    @Override
+    public void visit(Call node) {
+        final Object builtIn = builtIn(node);
+        if (builtIn != null) {
+            code = builtIn;
+            return;
+        }
+
+        final Function function = functions.get(node.function());
+        final IntCode[] args = new IntCode[node.arguments().size()];
+        int i = 0;
+        for (Expression argument : node.arguments()) {
+            args[i++] = slotCode(argument);
+        }
+        final IntCode call = f -> {
+            final Frame callee = new Frame(function.frameSize);
+            for (int a = 0; a < args.length; a++) {
+                callee.slots[a] = args[a].eval(f);
+            }
+            function.body.exec(callee);
+            return callee.result;
+        };
+
+        if (isFloat(node)) {
+            code = (FloatCode) f -> Float.intBitsToFloat(call.eval(f));
+        } else {
+            code = call;
+        }
+    }
+
+    @Override
+    public void visit(IfElseBranch node) {
+        final IntCode condition = intCode(node.condition());
+        final StatementCode thenBlock = (StatementCode) compile(node.thenBlock());
+        final StatementCode elseBlock = (StatementCode) compile(node.elseBlock());
+        code = (StatementCode) f -> condition.eval(f) != 0 ? thenBlock.exec(f) : elseBlock.exec(f);
+    }
+
+    @Override
+    public void visit(WhileLoop node) {
+        final IntCode condition = intCode(node.condition());
+        final StatementCode body = (StatementCode) compile(node.body());
+        code = (StatementCode) f -> {
+            while (condition.eval(f) != 0) {
+                if (body.exec(f)) {
+                    return true;
+                }
+            }
+            return false;
+        };
+    }
+
+    @Override
+    public void visit(Return node) {
+        final Object value = compile(node.argument());
+        if (value instanceof StatementCode) {
+            // a void call returned from a void function
+            final StatementCode call = (StatementCode) value;
+            code = (StatementCode) f -> {
+                call.exec(f);
+                return true;
+            };
+        } else {
+            final IntCode result = value instanceof FloatCode
+                    ? f -> Float.floatToRawIntBits(((FloatCode) value).eval(f))
+                    : (IntCode) value;
+            code = (StatementCode) f -> {
+                f.result = result.eval(f);
+                return true;
+            };
+        }
+    }
+
+    @Override
+    public void visit(Error node) {
+        throw error(node, "a");
+    }
+
+    // Interprets a crux source file against stdin/stdout.
+    public static void main(String[] args) {
+        String sourceFilename = args[0];
+
+        Scanner s = null;
+        try {
+            s = new Scanner(new FileReader(sourceFilename));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            System.exit(-2);
+        }
+
+        Parser p = new Parser(s);
+        ast.Command syntaxTree = p.parse();
+        if (p.hasError()) {
+            System.out.println("Error parsing file " + sourceFilename);
+            System.out.println(p.errorReport());
+            System.exit(-3);
+        }
+
+        TypeChecker tc = new TypeChecker();
+        tc.check(syntaxTree);
+        if (tc.hasError()) {
+            System.out.println("Error type-checking file " + sourceFilename);
+            System.out.println(tc.errorReport());
+            System.exit(-4);
+        }
+
+        Interpreter interpreter = new Interpreter(tc);
+        interpreter.prepare(syntaxTree);
+        if (interpreter.hasError()) {
+            System.out.println("Error preparing file " + sourceFilename);
+            System.out.println(interpreter.errorReport());
+            System.exit(-5);
+        }
+
+        try {
+            interpreter.run(System.in, System.out);
+        } catch (InterpreterException e) {
+            System.out.println();
+            System.out.println("Error running file " + sourceFilename + ": " + e.getMessage());
+            System.exit(-7);
+        }
+    }
+}
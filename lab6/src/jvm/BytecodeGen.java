@@ -0,0 +1,604 @@
+package jvm;
+
+import ast.*;
+import ast.Error;
+import crux.Diagnostics;
+import crux.Parser;
+import crux.Scanner;
+import crux.Symbol;
+import jvm.CruxRuntime.CruxRuntimeException;
+import types.*;
+
+import java.io.FileReader;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+
+// Lowers a type-checked crux AST to a single JVM class so programs can run
+// in-process instead of through spim. Every crux function becomes a static
+// method, every global a static field; ints and bools are JVM ints, and
+// arrays of any rank are flat int[] or float[] indexed in row-major order.
+public class BytecodeGen implements CommandVisitor {
+
+    private static final String RUNTIME = "jvm/CruxRuntime";
+
+    private static final long STACK_SIZE = 1L << 30;
+
+    private static final HashMap<String, String> builtIns = new HashMap<>();
+
+    static {
+        builtIns.put("readInt", "()I");
+        builtIns.put("readFloat", "()F");
+        builtIns.put("printBool", "(I)V");
+        builtIns.put("printInt", "(I)V");
+        builtIns.put("printFloat", "(F)V");
+        builtIns.put("println", "()V");
+    }
+
+    private Diagnostics diagnostics = new Diagnostics();
+    private TypeChecker tc;
+    private ClassWriter cw;
+    private ClassWriter.Method clinit;
+    private ClassWriter.Method method;
+    private Type returnType;
+    private IdentityHashMap<Symbol, Integer> locals;
+
+    public BytecodeGen(TypeChecker tc) {
+        this(tc, "CruxProgram");
+    }
+
+    public BytecodeGen(TypeChecker tc, String className) {
+        this.tc = tc;
+        this.cw = new ClassWriter(className);
+    }
+
+    public boolean hasError() {
+        return diagnostics.hasError();
+    }
+
+    public String errorReport() {
+        return diagnostics.report();
+    }
+
+    private class BytecodeGenException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public BytecodeGenException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    // Expressions are lowered recursively, so the program is generated on a
+    // thread with a STACK_SIZE stack; a deeper nesting is reported as an error
+    public boolean generate(Command ast) {
+        final boolean[] generated = new boolean[1];
+        final Thread thread = new Thread(null, () -> {
+            try {
+                clinit = cw.addMethod("<clinit>", "()V");
+                ast.accept(this);
+                clinit.op(Opcodes.RETURN, 0);
+                clinit.end();
+                generated[0] = !hasError();
+            } catch (BytecodeGenException e) {
+                // recorded in the error buffer
+            } catch (IllegalStateException e) {
+                diagnostics.report(Diagnostics.Code.MESSAGE, 0, 0, e.getMessage());
+            } catch (StackOverflowError e) {
+                final String message = "BytecodeGen cannot generate " + ast + ": expressions nested too deeply.";
+                diagnostics.report(Diagnostics.Code.MESSAGE, ast.lineNumber(), ast.charPosition(), message);
+            }
+        }, "crux-bytecode", STACK_SIZE);
+        thread.start();
+        try {
+            thread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return generated[0];
+    }
+
+    public byte[] getClassBytes() {
+        return cw.toByteArray();
+    }
+
+    // Defines the generated class in a fresh class loader
+    public Class<?> loadClass() {
+        final byte[] bytes = getClassBytes();
+        final String name = cw.className().replace('/', '.');
+        final ClassLoader loader = new ClassLoader(BytecodeGen.class.getClassLoader()) {
+            @Override
+            protected Class<?> findClass(String className) throws ClassNotFoundException {
+                if (!className.equals(name)) {
+                    throw new ClassNotFoundException(className);
+                }
+                return defineClass(name, bytes, 0, bytes.length);
+            }
+        };
+        try {
+            return loader.loadClass(name);
+        } catch (ClassNotFoundException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    // Types ===========================================
+
+    private static String descriptor(Type type) {
+        if (type instanceof FloatType) {
+            return "F";
+        } else if (type instanceof VoidType) {
+            return "V";
+        } else if (type instanceof ArrayType) {
+            return "[" + descriptor(elementType(type));
+        }
+        return "I";
+    }
+
+    private static String descriptor(FuncType type) {
+        final StringBuilder sb = new StringBuilder("(");
+        for (Type t : type.arguments()) {
+            sb.append(descriptor(t));
+        }
+        return sb.append(')').append(descriptor(type.returnType())).toString();
+    }
+
+    private static Type elementType(Type type) {
+        while (type instanceof ArrayType) {
+            type = ((ArrayType) type).base();
+        }
+        return type;
+    }
+
+    // The number of scalar elements a value of this type occupies
+    private static int numElements(Type type) {
+        if (type instanceof ArrayType) {
+            return ((ArrayType) type).extent() * numElements(((ArrayType) type).base());
+        }
+        return 1;
+    }
+
+    // Variables =======================================
+
+    private void loadVariable(Symbol symbol) {
+        final Integer slot = locals == null ? null : locals.get(symbol);
+        final Type type = symbol.type();
+        if (slot == null) {
+            method.field(Opcodes.GETSTATIC, cw.className(), symbol.name(), descriptor(type), 1);
+        } else if (type instanceof ArrayType) {
+            method.local(Opcodes.ALOAD, slot, 1);
+        } else if (type instanceof FloatType) {
+            method.local(Opcodes.FLOAD, slot, 1);
+        } else {
+            method.local(Opcodes.ILOAD, slot, 1);
+        }
+    }
+
+    private void storeVariable(Symbol symbol) {
+        final Integer slot = locals == null ? null : locals.get(symbol);
+        final Type type = symbol.type();
+        if (slot == null) {
+            method.field(Opcodes.PUTSTATIC, cw.className(), symbol.name(), descriptor(type), -1);
+        } else if (type instanceof ArrayType) {
+            method.local(Opcodes.ASTORE, slot, -1);
+        } else if (type instanceof FloatType) {
+            method.local(Opcodes.FSTORE, slot, -1);
+        } else {
+            method.local(Opcodes.ISTORE, slot, -1);
+        }
+    }
+
+    private void newArray(ClassWriter.Method m, Type type) {
+        m.pushInt(numElements(type));
+        m.newArray(elementType(type) instanceof FloatType ? Opcodes.T_FLOAT : Opcodes.T_INT);
+    }
+
+    // Assigns slots after the arguments to every local declared in a
+    // function body. Locals are zeroed on entry like the globals, which also
+    // lets the verifier see every slot as assigned before its first use.
+    private void declareLocals(StatementList body) {
+        for (Statement statement : body) {
+            if (statement instanceof VariableDeclaration || statement instanceof ArrayDeclaration) {
+                final Symbol symbol = ((Declaration) statement).symbol();
+                final int slot = locals.size();
+                locals.put(symbol, slot);
+                final Type type = symbol.type();
+                if (type instanceof ArrayType) {
+                    newArray(method, type);
+                } else if (type instanceof FloatType) {
+                    method.pushFloat(0);
+                } else {
+                    method.pushInt(0);
+                }
+                storeVariable(symbol);
+            } else if (statement instanceof IfElseBranch) {
+                declareLocals(((IfElseBranch) statement).thenBlock());
+                declareLocals(((IfElseBranch) statement).elseBlock());
+            } else if (statement instanceof WhileLoop) {
+                declareLocals(((WhileLoop) statement).body());
+            }
+        }
+    }
+
+    // Pushes the array and the flat element offset an Index addresses
+    private void element(Index node) {
+        final Expression base = node.base();
+        if (base instanceof AddressOf) {
+            loadVariable(((AddressOf) base).symbol());
+        } else if (base instanceof Index) {
+            element((Index) base);
+        } else {
+            throw error(node, "an index of a non-array expression");
+        }
+
+        node.amount().accept(this);
+        final int stride = numElements(((AddressType) tc.getType(node)).base());
+        if (stride != 1) {
+            method.pushInt(stride);
+            method.op(Opcodes.IMUL, -1);
+        }
+        if (base instanceof Index) {
+            method.op(Opcodes.IADD, -1);
+        }
+    }
+
+    private BytecodeGenException error(Command node, String what) {
+        final String message = "BytecodeGen cannot compile " + what + " " + node.toString();
+        diagnostics.report(Diagnostics.Code.MESSAGE, node.lineNumber(), node.charPosition(), message);
+        return new BytecodeGenException(message);
+    }
+
+    // Visitors ========================================
+
+    @Override
+    public void visit(ExpressionList node) {
+        for (Expression expression : node) {
+            expression.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(DeclarationList node) {
+        for (Declaration declaration : node) {
+            declaration.accept(this);
+        }
+    }
+
+    @Override
+    public void visit(StatementList node) {
+        for (Statement statement : node) {
+            statement.accept(this);
+            if (statement instanceof Call && !(tc.getType(statement) instanceof VoidType)) {
+                method.op(Opcodes.POP, -1);
+            }
+        }
+    }
+
+    @Override
+    public void visit(AddressOf node) {
+        throw error(node, "an address outside a dereference or assignment");
+    }
+
+    @Override
+    public void visit(LiteralBool node) {
+        method.pushInt(node.value() == LiteralBool.Value.FALSE ? 0 : 1);
+    }
+
+    @Override
+    public void visit(LiteralFloat node) {
+        method.pushFloat(node.value());
+    }
+
+    @Override
+    public void visit(LiteralInt node) {
+        method.pushInt(node.value());
+    }
+
+    @Override
+    public void visit(VariableDeclaration node) {
+        if (locals == null) {
+            cw.addField(node.symbol().name(), descriptor(node.symbol().type()));
+        }
+    }
+
+    @Override
+    public void visit(ArrayDeclaration node) {
+        if (locals == null) {
+            final Symbol symbol = node.symbol();
+            cw.addField(symbol.name(), descriptor(symbol.type()));
+            newArray(clinit, symbol.type());
+            clinit.field(Opcodes.PUTSTATIC, cw.className(), symbol.name(), descriptor(symbol.type()), -1);
+        }
+    }
+
+    @Override
+    public void visit(FunctionDefinition node) {
+        final FuncType type = (FuncType) node.function().type();
+        method = cw.addMethod(node.function().name(), descriptor(type));
+        returnType = type.returnType();
+        locals = new IdentityHashMap<>();
+        for (Symbol argument : node.arguments()) {
+            locals.put(argument, locals.size());
+        }
+        method.setMaxLocals(locals.size());
+        declareLocals(node.body());
+
+        node.body().accept(this);
+
+        // the type checker only guarantees some path returns, so the end of
+        // the body returns a zero value like an uninitialized $v0 would
+        if (returnType instanceof VoidType) {
+            method.op(Opcodes.RETURN, 0);
+        } else if (returnType instanceof FloatType) {
+            method.pushFloat(0);
+            method.op(Opcodes.FRETURN, -1);
+        } else {
+            method.pushInt(0);
+            method.op(Opcodes.IRETURN, -1);
+        }
+        method.end();
+
+        method = null;
+        locals = null;
+    }
+
+    private void arithmetic(Command node, Expression left, Expression right, int intOp, int floatOp) {
+        left.accept(this);
+        right.accept(this);
+        method.op(tc.getType(node) instanceof FloatType ? floatOp : intOp, -1);
+    }
+
+    // spim traps on signed overflow of add and sub, and so does the simulator
+    private void exact(Command node, Expression left, Expression right, String name, int floatOp) {
+        left.accept(this);
+        right.accept(this);
+        if (tc.getType(node) instanceof FloatType) {
+            method.op(floatOp, -1);
+        } else {
+            method.invokeStatic("java/lang/Math", name, "(II)I", -1);
+        }
+    }
+
+    @Override
+    public void visit(Addition node) {
+        exact(node, node.leftSide(), node.rightSide(), "addExact", Opcodes.FADD);
+    }
+
+    @Override
+    public void visit(Subtraction node) {
+        exact(node, node.leftSide(), node.rightSide(), "subtractExact", Opcodes.FSUB);
+    }
+
+    @Override
+    public void visit(Multiplication node) {
+        arithmetic(node, node.leftSide(), node.rightSide(), Opcodes.IMUL, Opcodes.FMUL);
+    }
+
+    @Override
+    public void visit(Division node) {
+        arithmetic(node, node.leftSide(), node.rightSide(), Opcodes.IDIV, Opcodes.FDIV);
+    }
+
+    @Override
+    public void visit(LogicalAnd node) {
+        arithmetic(node, node.leftSide(), node.rightSide(), Opcodes.IAND, Opcodes.IAND);
+    }
+
+    @Override
+    public void visit(LogicalOr node) {
+        arithmetic(node, node.leftSide(), node.rightSide(), Opcodes.IOR, Opcodes.IOR);
+    }
+
+    @Override
+    public void visit(LogicalNot node) {
+        node.expression().accept(this);
+        method.pushInt(1);
+        method.op(Opcodes.IXOR, -1);
+    }
+
+    @Override
+    public void visit(Comparison node) {
+        node.leftSide().accept(this);
+        node.rightSide().accept(this);
+
+        final int branch;
+        final int operands;
+        if (tc.getType(node.leftSide()) instanceof FloatType) {
+            // NaN compares false for everything but NE
+            final boolean less = node.operation() == Comparison.Operation.LT
+                    || node.operation() == Comparison.Operation.LE;
+            method.op(less ? Opcodes.FCMPG : Opcodes.FCMPL, -1);
+            switch (node.operation()) {
+                case GT:
+                    branch = Opcodes.IFGT;
+                    break;
+                case GE:
+                    branch = Opcodes.IFGE;
+                    break;
+                case EQ:
+                    branch = Opcodes.IFEQ;
+                    break;
+                case NE:
+                    branch = Opcodes.IFNE;
+                    break;
+                case LE:
+                    branch = Opcodes.IFLE;
+                    break;
+                default:
+                    branch = Opcodes.IFLT;
+                    break;
+            }
+            operands = 1;
+        } else {
+            switch (node.operation()) {
+                case GT:
+                    branch = Opcodes.IF_ICMPGT;
+                    break;
+                case GE:
+                    branch = Opcodes.IF_ICMPGE;
+                    break;
+                case EQ:
+                    branch = Opcodes.IF_ICMPEQ;
+                    break;
+                case NE:
+                    branch = Opcodes.IF_ICMPNE;
+                    break;
+                case LE:
+                    branch = Opcodes.IF_ICMPLE;
+                    break;
+                default:
+                    branch = Opcodes.IF_ICMPLT;
+                    break;
+            }
+            operands = 2;
+        }
+
+        final ClassWriter.Label labelTrue = new ClassWriter.Label();
+        final ClassWriter.Label labelExit = new ClassWriter.Label();
+        method.jump(branch, labelTrue, -operands);
+        final int depth = method.stack();
+        method.pushInt(0);
+        method.jump(Opcodes.GOTO, labelExit, 0);
+        method.mark(labelTrue);
+        method.setStack(depth);
+        method.pushInt(1);
+        method.mark(labelExit);
+    }
+
+    @Override
+    public void visit(Dereference node) {
+        final Expression expression = node.expression();
+        if (expression instanceof AddressOf) {
+            loadVariable(((AddressOf) expression).symbol());
+        } else if (expression instanceof Index) {
+            element((Index) expression);
+            method.op(tc.getType(node) instanceof FloatType ? Opcodes.FALOAD : Opcodes.IALOAD, -1);
+        } else {
+            throw error(node, "a dereference of a non-address expression");
+        }
+    }
+
+    @Override
+    public void visit(Index node) {
+        throw error(node, "an index outside a dereference or assignment");
+    }
+
+    @Override
+    public void visit(Assignment node) {
+        final Expression destination = node.destination();
+        if (destination instanceof AddressOf) {
+            node.source().accept(this);
+            storeVariable(((AddressOf) destination).symbol());
+        } else if (destination instanceof Index) {
+            element((Index) destination);
+            node.source().accept(this);
+            method.op(tc.getType(node.source()) instanceof FloatType ? Opcodes.FASTORE : Opcodes.IASTORE, -3);
+        } else {
+            throw error(node, "an assignment to a non-address expression");
+        }
+    }
+
+    @Override
+    public void visit(Call node) {
+        node.arguments().accept(this);
+
+        final String name = node.function().name();
+        final FuncType type = (FuncType) node.function().type();
+        final int delta = -node.arguments().size() + (type.returnType() instanceof VoidType ? 0 : 1);
+        if (builtIns.containsKey(name)) {
+            method.invokeStatic(RUNTIME, name, builtIns.get(name), delta);
+        } else {
+            method.invokeStatic(cw.className(), name, descriptor(type), delta);
+        }
+    }
+
+    @Override
+    public void visit(IfElseBranch node) {
+        final ClassWriter.Label elseLabel = new ClassWriter.Label();
+        final ClassWriter.Label exitLabel = new ClassWriter.Label();
+
+        node.condition().accept(this);
+        method.jump(Opcodes.IFEQ, elseLabel, -1);
+        node.thenBlock().accept(this);
+        method.jump(Opcodes.GOTO, exitLabel, 0);
+        method.mark(elseLabel);
+        node.elseBlock().accept(this);
+        method.mark(exitLabel);
+    }
+
+    @Override
+    public void visit(WhileLoop node) {
+        final ClassWriter.Label loop = new ClassWriter.Label();
+        final ClassWriter.Label exitLoop = new ClassWriter.Label();
+
+        method.mark(loop);
+        node.condition().accept(this);
+        method.jump(Opcodes.IFEQ, exitLoop, -1);
+        node.body().accept(this);
+        method.jump(Opcodes.GOTO, loop, 0);
+        method.mark(exitLoop);
+    }
+
+    @Override
+    public void visit(Return node) {
+        node.argument().accept(this);
+        if (returnType instanceof VoidType) {
+            method.op(Opcodes.RETURN, 0);
+        } else if (returnType instanceof FloatType) {
+            method.op(Opcodes.FRETURN, -1);
+        } else {
+            method.op(Opcodes.IRETURN, -1);
+        }
+    }
+
+    @Override
+    public void visit(Error node) {
+        throw error(node, "a");
+    }
+
+    // Compiles a crux source file to bytecode and runs it against stdin/stdout.
+    public static void main(String[] args) {
+        String sourceFilename = args[0];
+
+        Scanner s = null;
+        try {
+            s = new Scanner(new FileReader(sourceFilename));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            System.exit(-2);
+        }
+
+        Parser p = new Parser(s);
+        ast.Command syntaxTree = p.parse();
+        if (p.hasError()) {
+            System.out.println("Error parsing file " + sourceFilename);
+            System.out.println(p.errorReport());
+            System.exit(-3);
+        }
+
+        TypeChecker tc = new TypeChecker();
+        tc.check(syntaxTree);
+        if (tc.hasError()) {
+            System.out.println("Error type-checking file " + sourceFilename);
+            System.out.println(tc.errorReport());
+            System.exit(-4);
+        }
+
+        BytecodeGen bg = new BytecodeGen(tc);
+        bg.generate(syntaxTree);
+        if (bg.hasError()) {
+            System.out.println("Error generating code for file " + sourceFilename);
+            System.out.println(bg.errorReport());
+            System.exit(-5);
+        }
+
+        try {
+            CruxRuntime.run(bg.loadClass(), System.in, System.out);
+        } catch (CruxRuntimeException e) {
+            System.out.println();
+            System.out.println("Error running file " + sourceFilename + ": " + e.getMessage());
+            System.exit(-7);
+        }
+    }
+}
@@ -0,0 +1,339 @@
+package jvm;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+
+// Writes a minimal class file: static fields and static methods only.
+// Class files are version 49 so the JVM verifies them by type inference and
+// no StackMapTable frames have to be computed.
+public class ClassWriter {
+
+    private static final int VERSION = 49;
+
+    private static final int ACC_PUBLIC = 0x0001;
+    private static final int ACC_STATIC = 0x0008;
+    private static final int ACC_SUPER = 0x0020;
+
+    private static final int CONSTANT_UTF8 = 1;
+    private static final int CONSTANT_INTEGER = 3;
+    private static final int CONSTANT_FLOAT = 4;
+    private static final int CONSTANT_CLASS = 7;
+    private static final int CONSTANT_FIELDREF = 9;
+    private static final int CONSTANT_METHODREF = 10;
+    private static final int CONSTANT_NAME_AND_TYPE = 12;
+
+    private final String className;
+    private final ByteArrayOutputStream pool = new ByteArrayOutputStream();
+    private final HashMap<String, Integer> poolIndex = new HashMap<>();
+    private int poolCount = 1;
+
+    private final ArrayList<byte[]> fields = new ArrayList<>();
+    private final ArrayList<byte[]> methods = new ArrayList<>();
+
+    public ClassWriter(String className) {
+        this.className = className;
+    }
+
+    public String className() {
+        return className;
+    }
+
+    public void addField(String name, String descriptor) {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            out.writeShort(ACC_PUBLIC | ACC_STATIC);
+            out.writeShort(utf8(name));
+            out.writeShort(utf8(descriptor));
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        fields.add(bytes.toByteArray());
+    }
+
+    public Method addMethod(String name, String descriptor) {
+        return new Method(name, descriptor);
+    }
+
+    public byte[] toByteArray() {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        try {
+            final int thisClass = classRef(className);
+            final int superClass = classRef("java/lang/Object");
+
+            out.writeInt(0xCAFEBABE);
+            out.writeShort(0);
+            out.writeShort(VERSION);
+            out.writeShort(poolCount);
+            pool.writeTo(out);
+            out.writeShort(ACC_PUBLIC | ACC_SUPER);
+            out.writeShort(thisClass);
+            out.writeShort(superClass);
+            out.writeShort(0);
+            out.writeShort(fields.size());
+            for (byte[] field : fields) {
+                out.write(field);
+            }
+            out.writeShort(methods.size());
+            for (byte[] method : methods) {
+                out.write(method);
+            }
+            out.writeShort(0);
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        return bytes.toByteArray();
+    }
+
+    // Constant Pool ===================================
+
+    private int constant(String key, int tag, Object... parts) {
+        final Integer index = poolIndex.get(key);
+        if (index != null) {
+            return index;
+        }
+        final DataOutputStream out = new DataOutputStream(pool);
+        try {
+            out.writeByte(tag);
+            for (Object part : parts) {
+                if (part instanceof String) {
+                    out.writeUTF((String) part);
+                } else if (part instanceof Float) {
+                    out.writeFloat((Float) part);
+                } else if (tag == CONSTANT_INTEGER) {
+                    out.writeInt((Integer) part);
+                } else {
+                    out.writeShort((Integer) part);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException(e);
+        }
+        poolIndex.put(key, poolCount);
+        return poolCount++;
+    }
+
+    int utf8(String value) {
+        return constant("U" + value, CONSTANT_UTF8, value);
+    }
+
+    int integer(int value) {
+        return constant("I" + value, CONSTANT_INTEGER, value);
+    }
+
+    int floating(float value) {
+        return constant("F" + Float.floatToRawIntBits(value), CONSTANT_FLOAT, value);
+    }
+
+    int classRef(String name) {
+        final int nameIndex = utf8(name);
+        return constant("C" + name, CONSTANT_CLASS, nameIndex);
+    }
+
+    private int nameAndType(String name, String descriptor) {
+        final int nameIndex = utf8(name);
+        final int typeIndex = utf8(descriptor);
+        return constant("N" + name + ":" + descriptor, CONSTANT_NAME_AND_TYPE, nameIndex, typeIndex);
+    }
+
+    int fieldRef(String owner, String name, String descriptor) {
+        final int ownerIndex = classRef(owner);
+        final int nat = nameAndType(name, descriptor);
+        return constant("f" + owner + "." + name + ":" + descriptor, CONSTANT_FIELDREF, ownerIndex, nat);
+    }
+
+    int methodRef(String owner, String name, String descriptor) {
+        final int ownerIndex = classRef(owner);
+        final int nat = nameAndType(name, descriptor);
+        return constant("m" + owner + "." + name + ":" + descriptor, CONSTANT_METHODREF, ownerIndex, nat);
+    }
+
+    // Methods =========================================
+
+    public static class Label {
+
+        private int position = -1;
+        private final ArrayList<Integer> branches = new ArrayList<>();
+    }
+
+    // The code of one static method. Every emitting call records its effect
+    // on the operand stack so max_stack can be computed as code is written.
+    public class Method {
+
+        private final String name;
+        private final String descriptor;
+        private byte[] code = new byte[64];
+        private int length;
+        private int stack;
+        private int maxStack;
+        private int maxLocals;
+
+        private Method(String name, String descriptor) {
+            this.name = name;
+            this.descriptor = descriptor;
+        }
+
+        public void setMaxLocals(int locals) {
+            maxLocals = Math.max(maxLocals, locals);
+        }
+
+        private void u1(int value) {
+            if (length == code.length) {
+                final byte[] bigger = new byte[code.length * 2];
+                System.arraycopy(code, 0, bigger, 0, length);
+                code = bigger;
+            }
+            code[length++] = (byte) value;
+        }
+
+        private void u2(int value) {
+            u1(value >> 8);
+            u1(value);
+        }
+
+        private void adjust(int delta) {
+            stack += delta;
+            maxStack = Math.max(maxStack, stack);
+        }
+
+        public void op(int opcode, int stackDelta) {
+            u1(opcode);
+            adjust(stackDelta);
+        }
+
+        public void opU1(int opcode, int operand, int stackDelta) {
+            u1(opcode);
+            u1(operand);
+            adjust(stackDelta);
+        }
+
+        public void opU2(int opcode, int operand, int stackDelta) {
+            u1(opcode);
+            u2(operand);
+            adjust(stackDelta);
+        }
+
+        public void pushInt(int value) {
+            if (value >= -1 && value <= 5) {
+                op(Opcodes.ICONST_0 + value, 1);
+            } else if (value >= Byte.MIN_VALUE && value <= Byte.MAX_VALUE) {
+                opU1(Opcodes.BIPUSH, value, 1);
+            } else if (value >= Short.MIN_VALUE && value <= Short.MAX_VALUE) {
+                opU2(Opcodes.SIPUSH, value, 1);
+            } else {
+                ldc(integer(value));
+            }
+        }
+
+        public void pushFloat(float value) {
+            if (Float.floatToRawIntBits(value) == 0) {
+                op(Opcodes.FCONST_0, 1);
+            } else if (value == 1f) {
+                op(Opcodes.FCONST_1, 1);
+            } else if (value == 2f) {
+                op(Opcodes.FCONST_2, 1);
+            } else {
+                ldc(floating(value));
+            }
+        }
+
+        private void ldc(int index) {
+            if (index < 256) {
+                opU1(Opcodes.LDC, index, 1);
+            } else {
+                opU2(Opcodes.LDC_W, index, 1);
+            }
+        }
+
+        public void local(int opcode, int slot, int stackDelta) {
+            setMaxLocals(slot + 1);
+            if (slot < 256) {
+                opU1(opcode, slot, stackDelta);
+            } else {
+                u1(Opcodes.WIDE);
+                opU2(opcode, slot, stackDelta);
+            }
+        }
+
+        public void field(int opcode, String owner, String fieldName, String fieldDescriptor, int stackDelta) {
+            opU2(opcode, fieldRef(owner, fieldName, fieldDescriptor), stackDelta);
+        }
+
+        public void invokeStatic(String owner, String methodName, String methodDescriptor, int stackDelta) {
+            opU2(Opcodes.INVOKESTATIC, methodRef(owner, methodName, methodDescriptor), stackDelta);
+        }
+
+        public void newArray(int elementType) {
+            opU1(Opcodes.NEWARRAY, elementType, 0);
+        }
+
+        public void jump(int opcode, Label target, int stackDelta) {
+            final int position = length;
+            u1(opcode);
+            u2(0);
+            if (target.position >= 0) {
+                patch(position, target.position);
+            } else {
+                target.branches.add(position);
+            }
+            adjust(stackDelta);
+        }
+
+        public void mark(Label label) {
+            label.position = length;
+            for (int position : label.branches) {
+                patch(position, label.position);
+            }
+        }
+
+        public int stack() {
+            return stack;
+        }
+
+        // Execution never falls through after return or goto, so code that
+        // follows starts with whatever stack depth its branches arrive with.
+        public void setStack(int depth) {
+            stack = depth;
+        }
+
+        private void patch(int position, int target) {
+            final int offset = target - position;
+            if (offset < Short.MIN_VALUE || offset > Short.MAX_VALUE) {
+                throw new IllegalStateException("Branch offset too large in method " + name + ".");
+            }
+            code[position + 1] = (byte) (offset >> 8);
+            code[position + 2] = (byte) offset;
+        }
+
+        // Finishes the method and adds it to the class
+        public void end() {
+            if (length > 65535) {
+                throw new IllegalStateException("Method " + name + " is too large for the JVM.");
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeShort(ACC_PUBLIC | ACC_STATIC);
+                out.writeShort(utf8(name));
+                out.writeShort(utf8(descriptor));
+                out.writeShort(1);
+                out.writeShort(utf8("Code"));
+                out.writeInt(12 + length);
+                out.writeShort(maxStack);
+                out.writeShort(maxLocals);
+                out.writeInt(length);
+                out.write(code, 0, length);
+                out.writeShort(0);
+                out.writeShort(0);
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+            methods.add(bytes.toByteArray());
+        }
+    }
+}
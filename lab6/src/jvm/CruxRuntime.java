@@ -0,0 +1,113 @@
+package jvm;
+
+import mips.Simulator;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+// The built-in functions of crux for programs compiled by BytecodeGen.
+// Input and output are buffered and behave like the spim syscalls the MIPS
+// built-ins use: each read takes a whole line and prints the same prompt.
+public class CruxRuntime {
+
+    // Generated code calls the static built-ins, which use the runtime of the
+    // thread running the program so several programs can run at once.
+    private static final ThreadLocal<CruxRuntime> current = new ThreadLocal<>();
+
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    private CruxRuntime(InputStream in, PrintStream out) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = new PrintStream(new BufferedOutputStream(out, 1 << 16), false);
+    }
+
+    public static class CruxRuntimeException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public CruxRuntimeException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    // Runs the main function of a class generated by BytecodeGen
+    public static void run(Class<?> program, InputStream in, PrintStream out) {
+        final Method main;
+        try {
+            main = program.getMethod("main");
+        } catch (NoSuchMethodException e) {
+            throw new CruxRuntimeException("Program has no main function.");
+        }
+
+        final CruxRuntime runtime = new CruxRuntime(in, out);
+        final CruxRuntime previous = current.get();
+        current.set(runtime);
+        try {
+            main.invoke(null);
+        } catch (IllegalAccessException e) {
+            throw new CruxRuntimeException(e.toString());
+        } catch (InvocationTargetException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof CruxRuntimeException) {
+                throw (CruxRuntimeException) cause;
+            } else if (cause instanceof ArithmeticException) {
+                throw new CruxRuntimeException("Arithmetic error: " + cause.getMessage() + ".");
+            } else if (cause instanceof ArrayIndexOutOfBoundsException) {
+                throw new CruxRuntimeException("Array index out of bounds: " + cause.getMessage() + ".");
+            } else if (cause instanceof StackOverflowError) {
+                throw new CruxRuntimeException("Stack overflow.");
+            }
+            throw new CruxRuntimeException(String.valueOf(cause));
+        } finally {
+            runtime.out.flush();
+            current.set(previous);
+        }
+    }
+
+    private String readLine() {
+        out.flush();
+        try {
+            final String line = in.readLine();
+            return line == null ? "" : line.trim();
+        } catch (IOException e) {
+            throw new CruxRuntimeException("Error reading input: " + e.getMessage());
+        }
+    }
+
+    // Built-ins =======================================
+
+    public static int readInt() {
+        final CruxRuntime r = current.get();
+        r.out.print("int?");
+        return Simulator.parseInt(r.readLine());
+    }
+
+    public static float readFloat() {
+        final CruxRuntime r = current.get();
+        r.out.print("float?");
+        return Simulator.parseFloat(r.readLine());
+    }
+
+    public static void printBool(int value) {
+        current.get().out.print(value != 0 ? "true" : "false");
+    }
+
+    public static void printInt(int value) {
+        current.get().out.print(value);
+    }
+
+    public static void printFloat(float value) {
+        current.get().out.print(Simulator.formatFloat(value));
+    }
+
+    public static void println() {
+        current.get().out.print('\n');
+    }
+}
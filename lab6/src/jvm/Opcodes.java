@@ -0,0 +1,74 @@
+package jvm;
+
+// The subset of JVM opcodes that BytecodeGen emits.
+public final class Opcodes {
+
+    private Opcodes() {
+    }
+
+    public static final int ICONST_M1 = 0x02;
+    public static final int ICONST_0 = 0x03;
+    public static final int ICONST_1 = 0x04;
+    public static final int FCONST_0 = 0x0b;
+    public static final int FCONST_1 = 0x0c;
+    public static final int FCONST_2 = 0x0d;
+    public static final int BIPUSH = 0x10;
+    public static final int SIPUSH = 0x11;
+    public static final int LDC = 0x12;
+    public static final int LDC_W = 0x13;
+
+    public static final int ILOAD = 0x15;
+    public static final int FLOAD = 0x17;
+    public static final int ALOAD = 0x19;
+    public static final int IALOAD = 0x2e;
+    public static final int FALOAD = 0x30;
+    public static final int ISTORE = 0x36;
+    public static final int FSTORE = 0x38;
+    public static final int ASTORE = 0x3a;
+    public static final int IASTORE = 0x4f;
+    public static final int FASTORE = 0x51;
+
+    public static final int POP = 0x57;
+
+    public static final int IADD = 0x60;
+    public static final int FADD = 0x62;
+    public static final int ISUB = 0x64;
+    public static final int FSUB = 0x66;
+    public static final int IMUL = 0x68;
+    public static final int FMUL = 0x6a;
+    public static final int IDIV = 0x6c;
+    public static final int FDIV = 0x6e;
+    public static final int IAND = 0x7e;
+    public static final int IOR = 0x80;
+    public static final int IXOR = 0x82;
+
+    public static final int FCMPL = 0x95;
+    public static final int FCMPG = 0x96;
+    public static final int IFEQ = 0x99;
+    public static final int IFNE = 0x9a;
+    public static final int IFLT = 0x9b;
+    public static final int IFGE = 0x9c;
+    public static final int IFGT = 0x9d;
+    public static final int IFLE = 0x9e;
+    public static final int IF_ICMPEQ = 0x9f;
+    public static final int IF_ICMPNE = 0xa0;
+    public static final int IF_ICMPLT = 0xa1;
+    public static final int IF_ICMPGE = 0xa2;
+    public static final int IF_ICMPGT = 0xa3;
+    public static final int IF_ICMPLE = 0xa4;
+    public static final int GOTO = 0xa7;
+
+    public static final int IRETURN = 0xac;
+    public static final int FRETURN = 0xae;
+    public static final int RETURN = 0xb1;
+
+    public static final int GETSTATIC = 0xb2;
+    public static final int PUTSTATIC = 0xb3;
+    public static final int INVOKESTATIC = 0xb8;
+    public static final int NEWARRAY = 0xbc;
+    public static final int WIDE = 0xc4;
+
+    // newarray element types
+    public static final int T_FLOAT = 6;
+    public static final int T_INT = 10;
+}
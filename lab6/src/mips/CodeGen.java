@@ -2,27 +2,59 @@ package mips;
 
 import ast.*;
 import ast.Error;
+import crux.Diagnostics;
 import types.*;
 
-public class CodeGen implements CommandVisitor {
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
 
-    private StringBuffer errorBuffer = new StringBuffer();
+public class CodeGen extends SwitchVisitor implements Traversal.Visitor {
+
+    private Diagnostics diagnostics = new Diagnostics();
     private TypeChecker tc;
     private Program program;
     private ActivationRecord currentActivationRecord;
     private String currentFunctionName;
+    private int threads;
+    private ForkJoinPool pool;
+    private HashMap<FunctionDefinition, List<String>> reused = new HashMap<>();
+    private HashMap<FunctionDefinition, Program> fragments = new HashMap<>();
 
     public CodeGen(TypeChecker tc) {
         this.tc = tc;
         this.program = new Program();
     }
 
+    // Generates the functions of the program on up to the given number of
+    // threads. Each function gets its own fragment with labels namespaced by
+    // the function name, and fragments are appended in source order, so the
+    // output is the same for any number of threads.
+    public CodeGen(TypeChecker tc, int threads) {
+        this(tc);
+        this.threads = Math.max(1, threads);
+    }
+
+    // A worker generating one function into its own fragment
+    private CodeGen(TypeChecker tc, FunctionDefinition node, ActivationRecord globalFrame) {
+        this.tc = tc;
+        this.program = new Program(node.function().name());
+        this.currentActivationRecord = globalFrame;
+    }
+
     public boolean hasError() {
-        return errorBuffer.length() != 0;
+        return diagnostics.hasError();
     }
 
     public String errorReport() {
-        return errorBuffer.toString();
+        return diagnostics.report();
+    }
+
+    // Reports at most maxErrors errors; set before generating
+    public void setMaxErrors(int maxErrors) {
+        diagnostics = new Diagnostics(maxErrors);
     }
 
     private class CodeGenException extends RuntimeException {
@@ -41,31 +73,136 @@ public class CodeGen implements CommandVisitor {
     public boolean generate(Command ast) {
         try {
             currentActivationRecord = ActivationRecord.newGlobalFrame();
-            ast.accept(this);
+            if (threads > 0) {
+                pool = new ForkJoinPool(threads);
+            }
+            dispatch(ast);
             return !hasError();
         } catch (CodeGenException e) {
             return false;
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
+    }
+
+    // Generates one declaration at a time, for a pipeline: begin() with the
+    // program's DeclarationList, then append() each of its declarations in
+    // order once it is checked, then end(). The code is the same as that of
+    // generate() on the whole list. Returns false once there is an error.
+    public void begin(DeclarationList node) {
+        currentActivationRecord = ActivationRecord.newGlobalFrame();
+        program.appendInstruction(String.format("%24s %s", "#begin", node));
+    }
+
+    public boolean append(Declaration declaration) {
+        try {
+            dispatch(declaration);
+        } catch (CodeGenException e) {
+            // recorded in the error buffer
+        }
+        return !hasError();
+    }
+
+    public void end(DeclarationList node) {
+        program.appendInstruction(String.format("%24s %s", "#end", node));
+    }
+
+    private CodeGen generateFunction(FunctionDefinition node) {
+        try {
+            dispatch(node);
+        } catch (CodeGenException e) {
+            // recorded in the error buffer
         }
+        return this;
+    }
+
+    // Expressions are generated by a Traversal, which emits the #begin of
+    // each node on the way down; their visits only emit the code that
+    // combines the values their subexpressions pushed.
+    private void generateExpression(Visitable expression) {
+        Traversal.walk((Command) expression, this);
+    }
+
+    @Override
+    public void enter(Command node) {
+        program.appendInstruction(String.format("%24s %s", "#begin", node));
+    }
+
+    @Override
+    public void leave(Command node) {
+        dispatch(node);
+    }
+
+    // The type of an Assignment or Return, read once its expressions are
+    // generated
+    protected Type statementType(Command statement) {
+        return tc.getType(statement);
     }
 
     public Program getProgram() {
         return program;
     }
 
+    // In fragment mode, appends previously generated code for a function
+    // in place of generating it; the function need not be type checked
+    public void reuse(FunctionDefinition node, List<String> code) {
+        reused.put(node, code);
+    }
+
+    // In fragment mode, the code generated for a function
+    public List<String> fragment(FunctionDefinition node) {
+        final Program fragment = fragments.get(node);
+        return fragment == null ? null : fragment.code();
+    }
+
     @Override
     public void visit(ExpressionList node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        for (Expression expression : node) {
-            expression.accept(this);
-        }
         program.appendInstruction(String.format("%24s %s", "#end", node));
     }
 
     @Override
     public void visit(DeclarationList node) {
         program.appendInstruction(String.format("%24s %s", "#begin", node));
-        for (Declaration declaration : node) {
-            declaration.accept(this);
+        if (pool == null) {
+            for (Declaration declaration : node) {
+                dispatch(declaration);
+            }
+        } else {
+            // globals are laid out here, in order, before any function runs;
+            // the functions only read the global frame and the type map
+            final ArrayList<FunctionDefinition> functions = new ArrayList<>();
+            final ArrayList<ForkJoinTask<CodeGen>> workers = new ArrayList<>();
+            for (Declaration declaration : node) {
+                if (declaration instanceof FunctionDefinition && ((FunctionDefinition) declaration).isReached()) {
+                    final FunctionDefinition function = (FunctionDefinition) declaration;
+                    functions.add(function);
+                    if (reused.containsKey(function)) {
+                        workers.add(null);
+                    } else {
+                        final CodeGen worker = new CodeGen(tc, function, currentActivationRecord);
+                        worker.setMaxErrors(diagnostics.maxErrors());
+                        workers.add(pool.submit(() -> worker.generateFunction(function)));
+                    }
+                } else {
+                    dispatch(declaration);
+                }
+            }
+            for (int i = 0; i < functions.size(); i++) {
+                if (workers.get(i) == null) {
+                    program.appendCode(reused.get(functions.get(i)));
+                } else {
+                    final CodeGen worker = workers.get(i).join();
+                    fragments.put(functions.get(i), worker.program);
+                    program.append(worker.program);
+                    diagnostics.addAll(worker.diagnostics);
+                }
+            }
+            if (hasError()) {
+                throw new CodeGenException(errorReport());
+            }
         }
         program.appendInstruction(String.format("%24s %s", "#end", node));
     }
@@ -74,8 +211,8 @@ public class CodeGen implements CommandVisitor {
     public void visit(StatementList node) {
         program.appendInstruction(String.format("%24s %s", "#begin", node));
         for (Statement statement : node) {
-            statement.accept(this);
             if (statement instanceof Call) {
+                generateExpression(statement);
                 final Type type = tc.getType(statement);
                 if (!(type instanceof VoidType)) {
                     if (type instanceof FloatType) {
@@ -84,6 +221,8 @@ public class CodeGen implements CommandVisitor {
                         program.popInt("$t1");
                     }
                 }
+            } else {
+                dispatch(statement);
             }
         }
         program.appendInstruction(String.format("%24s %s", "#end", node));
@@ -91,7 +230,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(AddressOf node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
         currentActivationRecord.getAddress(program, "$t1", node.symbol());
         program.pushInt("$t1");
         program.appendInstruction(String.format("%24s %s", "#end", node));
@@ -99,7 +237,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LiteralBool node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
         final int val = node.value() == LiteralBool.Value.FALSE ? 0 : 1;
         program.appendInstruction("li $t1, " + val);
         program.pushInt("$t1");
@@ -108,7 +245,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LiteralFloat node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
         program.appendInstruction("li.s $f0, " + node.value());
         program.pushFloat("$f0");
         program.appendInstruction(String.format("%24s %s", "#end", node));
@@ -116,7 +252,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LiteralInt node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
         program.appendInstruction("li $t1, " + node.value());
         program.pushInt("$t1");
         program.appendInstruction(String.format("%24s %s", "#end", node));
@@ -134,11 +269,14 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(FunctionDefinition node) {
+        if (!node.isReached()) {
+            return;
+        }
         program.appendInstruction(String.format("%24s %s", "#begin", node));
         currentFunctionName = node.function().name();
         currentActivationRecord = new ActivationRecord(node, currentActivationRecord);
         final int pos = program.appendInstruction(program.newFuncLabel(currentFunctionName) + ":");
-        node.body().accept(this);
+        dispatch(node.body());
         program.insertPrologue(pos + 1, currentActivationRecord.stackSize());
         program.appendInstruction(getFuncEpilogueLabel(currentFunctionName) + ":");
         program.appendEpilogue(currentActivationRecord.stackSize());
@@ -153,10 +291,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Addition node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         final Type type = tc.getType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
@@ -175,10 +309,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Subtraction node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         final Type type = tc.getType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
@@ -197,10 +327,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Multiplication node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         final Type type = tc.getType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
@@ -219,10 +345,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Division node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         final Type type = tc.getType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
@@ -241,10 +363,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LogicalAnd node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         program.popInt("$t1");
         program.popInt("$t0");
         program.appendInstruction("and $t0, $t0, $t1");
@@ -255,10 +373,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LogicalOr node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         program.popInt("$t1");
         program.popInt("$t0");
         program.appendInstruction("or $t0, $t0, $t1");
@@ -269,9 +383,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(LogicalNot node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.expression().accept(this);
-
         program.popInt("$t0");
         program.appendInstruction("nor $t0, $t0, $0");
         program.pushInt("$t0");
@@ -281,10 +392,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Comparison node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.leftSide().accept(this);
-        node.rightSide().accept(this);
-
         final Type type = tc.getType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
@@ -361,8 +468,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Dereference node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.expression().accept(this);
         program.popInt("$t1");
         program.appendInstruction("lw $t1, 0($t1)");
         program.pushInt("$t1");
@@ -371,10 +476,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Index node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.base().accept(this);
-        node.amount().accept(this);
-
         final AddressType baseType = (AddressType) tc.getType(node);
 
         program.popInt("$t2");
@@ -391,10 +492,10 @@ public class CodeGen implements CommandVisitor {
     public void visit(Assignment node) {
         program.appendInstruction(String.format("%24s %s", "#begin", node));
 
-        node.destination().accept(this);
-        node.source().accept(this);
+        generateExpression(node.destination());
+        generateExpression(node.source());
 
-        final Type type = tc.getType(node);
+        final Type type = statementType(node);
         if (type instanceof FloatType) {
             program.popFloat("$f1");
             program.popFloat("$f2");
@@ -410,9 +511,6 @@ public class CodeGen implements CommandVisitor {
 
     @Override
     public void visit(Call node) {
-        program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.arguments().accept(this);
-
         final FuncType funcType = (FuncType) node.function().type();
         final TypeList argType = (TypeList) tc.getType(node.arguments());
 
@@ -439,18 +537,18 @@ public class CodeGen implements CommandVisitor {
         final String elseLabel = program.newLabel();
         final String exitLabel = program.newLabel();
 
-        node.condition().accept(this);
+        generateExpression(node.condition());
 
         program.appendInstruction(ifThenLabel + ":");
         program.popInt("$t0");
         program.appendInstruction("beqz $t0, " + elseLabel);
 
-        node.thenBlock().accept(this);
+        dispatch(node.thenBlock());
 
         program.appendInstruction("j " + exitLabel);
 
         program.appendInstruction(elseLabel + ":");
-        node.elseBlock().accept(this);
+        dispatch(node.elseBlock());
 
         program.appendInstruction(exitLabel + ":");
 
@@ -465,11 +563,11 @@ public class CodeGen implements CommandVisitor {
         final String exitLoop = program.newLabel();
 
         program.appendInstruction(loop + ":");
-        node.condition().accept(this);
+        generateExpression(node.condition());
         program.popInt("$t0");
         program.appendInstruction("beqz $t0, " + exitLoop);
 
-        node.body().accept(this);
+        dispatch(node.body());
         program.appendInstruction("j " + loop);
         program.appendInstruction(exitLoop + ":");
 
@@ -479,8 +577,8 @@ public class CodeGen implements CommandVisitor {
     @Override
     public void visit(Return node) {
         program.appendInstruction(String.format("%24s %s", "#begin", node));
-        node.argument().accept(this);
-        final Type type = tc.getType(node);
+        generateExpression(node.argument());
+        final Type type = statementType(node);
         if (type instanceof FloatType) {
             program.popFloat("$v0");
         } else {
@@ -493,7 +591,7 @@ public class CodeGen implements CommandVisitor {
     @Override
     public void visit(Error node) {
         String message = "CodeGen cannot compile a " + node.toString();
-        errorBuffer.append(message);
+        diagnostics.report(Diagnostics.Code.MESSAGE, node.lineNumber(), node.charPosition(), message);
         throw new CodeGenException(message);
     }
 }
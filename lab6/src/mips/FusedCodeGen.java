@@ -0,0 +1,137 @@
+package mips;
+
+import ast.*;
+import ast.Error;
+import types.Type;
+import types.TypeChecker;
+
+// Checks and generates the program in one pass, for quick builds. tc must
+// not have checked it: each node is checked as it is generated, before its
+// code reads its type, and the types of each top-level declaration are
+// released once it is generated, so tc's type array only grows to the
+// largest declaration. Without type errors, the code is the same as that
+// of CodeGen.generate().
+//
+// No code is needed after the first type error. The declaration it is in
+// was only partly checked, so it is checked again from its start, and the
+// declarations after it are only checked: tc ends with the report, and the
+// limit, of TypeChecker.check(). The code generated before the error is
+// wasted, though, so a source whose first error is late costs about a full
+// compile, where checking first would have stopped before generating.
+public class FusedCodeGen extends CodeGen {
+
+    private final TypeChecker tc;
+
+    public FusedCodeGen(TypeChecker tc) {
+        super(tc);
+        this.tc = tc;
+    }
+
+    // Stops generating the declaration a type error is found in
+    private static class TypeErrorFound extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        TypeErrorFound() {
+            super(null, null, false, false);
+        }
+    }
+
+    private void checked() {
+        if (tc.hasError()) {
+            throw new TypeErrorFound();
+        }
+    }
+
+    @Override
+    public void leave(Command node) {
+        tc.leave(node);
+        checked();
+        super.leave(node);
+    }
+
+    @Override
+    protected Type statementType(Command statement) {
+        if (statement instanceof Assignment) {
+            tc.checkAssignment((Assignment) statement);
+        } else {
+            tc.checkReturn((Return) statement);
+        }
+        checked();
+        return super.statementType(statement);
+    }
+
+    @Override
+    public void visit(DeclarationList node) {
+        getProgram().appendInstruction(String.format("%24s %s", "#begin", node));
+        for (Declaration declaration : node) {
+            if (tc.hasError()) {
+                tc.check((Command) declaration);
+            } else {
+                try {
+                    dispatch(declaration);
+                } catch (TypeErrorFound e) {
+                    tc.clearErrors();
+                    tc.check((Command) declaration);
+                }
+            }
+            tc.release();
+        }
+        getProgram().appendInstruction(String.format("%24s %s", "#end", node));
+    }
+
+    @Override
+    public void visit(StatementList node) {
+        super.visit(node);
+        tc.checkStatements(node);
+    }
+
+    @Override
+    public void visit(VariableDeclaration node) {
+        tc.leave(node);
+        checked();
+        super.visit(node);
+    }
+
+    @Override
+    public void visit(ArrayDeclaration node) {
+        tc.leave(node);
+        checked();
+        super.visit(node);
+    }
+
+    @Override
+    public void visit(FunctionDefinition node) {
+        tc.checkSignature(node);
+        checked();
+        super.visit(node);
+        if (node.isReached()) {
+            tc.checkReturns(node);
+            checked();
+        }
+    }
+
+    // A condition is checked once its statement is generated; no code reads
+    // the statement's type
+
+    @Override
+    public void visit(IfElseBranch node) {
+        super.visit(node);
+        tc.checkCondition(node);
+        checked();
+    }
+
+    @Override
+    public void visit(WhileLoop node) {
+        super.visit(node);
+        tc.checkCondition(node);
+        checked();
+    }
+
+    @Override
+    public void visit(Error node) {
+        tc.leave(node);
+        checked();
+        super.visit(node);
+    }
+}
@@ -0,0 +1,165 @@
+package mips;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+// Execution profile of a simulated Program. Counts are attributed to the
+// enclosing function label and to the crux source line of the innermost AST
+// node that CodeGen emitted the instruction for.
+public class Profiler {
+
+    enum Kind {
+        NONE,
+        LOAD,
+        STORE,
+        BRANCH,
+        CALL,
+        OTHER
+    }
+
+    private final String[] functions;
+    private final int[] lines;
+    private final Kind[] kinds;
+    private final String[] callees;
+
+    private final long[] executed;
+    private final long[] taken;
+
+    Profiler(String[] functions, int[] lines, Kind[] kinds, String[] callees) {
+        this.functions = functions;
+        this.lines = lines;
+        this.kinds = kinds;
+        this.callees = callees;
+        this.executed = new long[kinds.length];
+        this.taken = new long[kinds.length];
+    }
+
+    void executed(int pc) {
+        executed[pc]++;
+    }
+
+    void taken(int pc) {
+        taken[pc]++;
+    }
+
+    public static class Counts {
+
+        private long instructions;
+        private long loads;
+        private long stores;
+        private long branchesTaken;
+        private long calls;
+
+        public long instructions() {
+            return instructions;
+        }
+
+        public long loads() {
+            return loads;
+        }
+
+        public long stores() {
+            return stores;
+        }
+
+        public long branchesTaken() {
+            return branchesTaken;
+        }
+
+        // For a function, the number of times it was called; for a line, the number of calls it made
+        public long calls() {
+            return calls;
+        }
+
+        private void add(Kind kind, long count, long takenCount) {
+            instructions += count;
+            branchesTaken += takenCount;
+            if (kind == Kind.LOAD) {
+                loads += count;
+            } else if (kind == Kind.STORE) {
+                stores += count;
+            }
+        }
+    }
+
+    public Map<String, Counts> byFunction() {
+        final LinkedHashMap<String, Counts> map = new LinkedHashMap<>();
+        for (int pc = 0; pc < kinds.length; pc++) {
+            if (functions[pc] != null) {
+                counts(map, functions[pc]).add(kinds[pc], executed[pc], taken[pc]);
+            }
+        }
+        for (int pc = 0; pc < kinds.length; pc++) {
+            if (kinds[pc] == Kind.CALL) {
+                counts(map, callees[pc]).calls += executed[pc];
+            }
+        }
+        if (map.containsKey("main")) {
+            // main is entered once by the simulator itself
+            map.get("main").calls++;
+        }
+        return map;
+    }
+
+    // Lines are those of the crux source; instructions outside any AST node
+    // (the built-in functions) are not attributed to a line.
+    public Map<Integer, Counts> byLine() {
+        final TreeMap<Integer, Counts> map = new TreeMap<>();
+        for (int pc = 0; pc < kinds.length; pc++) {
+            if (lines[pc] > 0 && kinds[pc] != Kind.NONE) {
+                final Counts c = counts(map, lines[pc]);
+                c.add(kinds[pc], executed[pc], taken[pc]);
+                if (kinds[pc] == Kind.CALL) {
+                    c.calls += executed[pc];
+                }
+            }
+        }
+        return map;
+    }
+
+    private static <K> Counts counts(Map<K, Counts> map, K key) {
+        Counts c = map.get(key);
+        if (c == null) {
+            c = new Counts();
+            map.put(key, c);
+        }
+        return c;
+    }
+
+    public void report(PrintStream s) {
+        final Map<String, Counts> functionCounts = byFunction();
+        final Counts total = new Counts();
+        for (Counts c : functionCounts.values()) {
+            total.calls += c.calls;
+            total.instructions += c.instructions;
+            total.loads += c.loads;
+            total.stores += c.stores;
+            total.branchesTaken += c.branchesTaken;
+        }
+
+        s.println(String.format("%-24s %12s %12s %12s %12s %12s", "function", "calls", "instructions",
+                "loads", "stores", "taken"));
+        for (Map.Entry<String, Counts> e : functionCounts.entrySet()) {
+            if (e.getValue().instructions != 0) {
+                print(s, e.getKey(), e.getValue());
+            }
+        }
+        print(s, "total", total);
+
+        s.println();
+        s.println(String.format("%-24s %12s %12s %12s %12s %12s", "line", "calls", "instructions",
+                "loads", "stores", "taken"));
+        for (Map.Entry<Integer, Counts> e : byLine().entrySet()) {
+            if (e.getValue().instructions != 0) {
+                print(s, String.valueOf(e.getKey()), e.getValue());
+            }
+        }
+    }
+
+    private static void print(PrintStream s, String name, Counts c) {
+        s.println(String.format("%-24s %12d %12d %12d %12d %12d", name, c.calls, c.instructions,
+                c.loads, c.stores, c.branchesTaken));
+    }
+}
@@ -2,6 +2,8 @@ package mips;
 
 import java.io.PrintStream;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class Program {
 
@@ -9,9 +11,17 @@ public class Program {
     private ArrayList<String> dataSegment;
 
     private int labelCounter;
+    private String labelPrefix;
 
     public Program() {
+        this(null);
+    }
+
+    // A program fragment whose labels are unique within the given namespace,
+    // so fragments generated independently can be appended to one program
+    public Program(String namespace) {
         labelCounter = -1;
+        labelPrefix = namespace == null ? "label." : "label." + namespace + ".";
         codeSegment = new ArrayList<>();
         dataSegment = new ArrayList<>();
     }
@@ -19,7 +29,7 @@ public class Program {
     // Returns a unique label
     public String newLabel() {
         labelCounter++;
-        return "label." + labelCounter;
+        return labelPrefix + labelCounter;
     }
 
     public String newFuncLabel(String name) {
@@ -48,6 +58,22 @@ public class Program {
         codeSegment.add(pos, instr);
     }
 
+    // Appends the code and data of a fragment to this program
+    public void append(Program fragment) {
+        codeSegment.addAll(fragment.codeSegment);
+        dataSegment.addAll(fragment.dataSegment);
+    }
+
+    // Appends lines to the code segment
+    public void appendCode(List<String> code) {
+        codeSegment.addAll(code);
+    }
+
+    // Returns the code segment, without the built-in functions
+    public List<String> code() {
+        return new ArrayList<>(codeSegment);
+    }
+
     // Append item to data segment
     public void appendData(String data) {
         dataSegment.add(data);
@@ -105,94 +131,122 @@ public class Program {
 
     //Print the program to the provided stream
     public void print(PrintStream s) {
+        printData(s);
+        for (String code : codeSegment)
+            s.println(code);
+        printEnd(s);
+    }
+
+    // A program can also be printed in pieces, so its code need not be held
+    // at once: the code is flushed to a side file as it is generated, and
+    // the output is printData(), that file, then printEnd().
+
+    // Prints everything before the crux program: the data segment, which
+    // is complete only once the whole program is generated, and the
+    // built-in functions
+    public void printData(PrintStream s) {
         s.println(".data                         # BEGIN Data Segment");
         for (String data : dataSegment)
             s.println(data);
-        s.println("data.newline:      .asciiz       \"\\n\"");
-        s.println("data.floatquery:   .asciiz       \"float?\"");
-        s.println("data.intquery:     .asciiz       \"int?\"");
-        s.println("data.trueString:   .asciiz       \"true\"");
-        s.println("data.falseString:  .asciiz       \"false\"");
+        for (String data : BUILT_IN_DATA)
+            s.println(data);
         s.println("                              # END Data Segment");
 
         s.println(".text                         # BEGIN Code Segment");
         // provide the built-in functions
-        funcPrintBool(s);
-        funcPrintFloat(s);
-        funcPrintInt(s);
-        funcPrintln(s);
-        funcReadFloat(s);
-        funcReadInt(s);
+        for (String code : BUILT_IN_CODE)
+            s.println(code);
 
         s.println(".text                         # BEGIN Crux Program");
-        // write out the crux program
+    }
+
+    // Prints the code generated since the last flush and releases it. Only
+    // call it between functions: insertPrologue() positions are indices
+    // into the code segment.
+    public void flushCode(PrintStream s) {
         for (String code : codeSegment)
             s.println(code);
-        s.println("                              # END Code Segment");
+        codeSegment.clear();
     }
 
-    // Prints the current stack value, assuming it's an int
-    public void funcPrintInt(PrintStream s) {
-        s.println("func.printInt:");
-        s.println("lw   $a0, 0($sp)");
-        s.println("li   $v0, 1");
-        s.println("syscall");
-        s.println("jr $ra");
-    }
-
-    // Prints the current stack value assuming it's a bool
-    public void funcPrintBool(PrintStream s) {
-        s.println("func.printBool:");
-        s.println("lw $a0, 0($sp)");
-        s.println("beqz $a0, label.printBool.loadFalse");
-        s.println("la $a0, data.trueString");
-        s.println("j label.printBool.join");
-        s.println("label.printBool.loadFalse:");
-        s.println("la $a0, data.falseString");
-        s.println("label.printBool.join:");
-        s.println("li   $v0, 4");
-        s.println("syscall");
-        s.println("jr $ra");
-    }
-
-    // Prints the current stack value assuming it's a float
-    private void funcPrintFloat(PrintStream s) {
-        s.println("func.printFloat:");
-        s.println("l.s  $f12, 0($sp)");
-        s.println("li   $v0,  2");
-        s.println("syscall");
-        s.println("jr $ra");
-    }
-
-    // Prints a newline
-    private void funcPrintln(PrintStream s) {
-        s.println("func.println:");
-        s.println("la   $a0, data.newline");
-        s.println("li   $v0, 4");
-        s.println("syscall");
-        s.println("jr $ra");
-    }
-
-    // Reads an int onto the stack
-    private void funcReadInt(PrintStream s) {
-        s.println("func.readInt:");
-        s.println("la   $a0, data.intquery");
-        s.println("li   $v0, 4");
-        s.println("syscall");
-        s.println("li   $v0, 5");
-        s.println("syscall");
-        s.println("jr $ra");
-    }
-
-    // Reads a float onto the stack
-    private void funcReadFloat(PrintStream s) {
-        s.println("func.readFloat:");
-        s.println("la   $a0, data.floatquery");
-        s.println("li   $v0, 4");
-        s.println("syscall");
-        s.println("li   $v0, 6");
-        s.println("syscall");
-        s.println("mfc1 $v0, $f0");
-        s.println("jr $ra");
+    public void printEnd(PrintStream s) {
+        s.println("                              # END Code Segment");
     }
+
+    // Returns the data segment followed by the data used by the built-in functions
+    List<String> dataLines() {
+        final ArrayList<String> lines = new ArrayList<>(dataSegment);
+        lines.addAll(Arrays.asList(BUILT_IN_DATA));
+        return lines;
+    }
+
+    // Returns the built-in functions followed by the code segment
+    List<String> codeLines() {
+        final ArrayList<String> lines = new ArrayList<>(Arrays.asList(BUILT_IN_CODE));
+        lines.addAll(codeSegment);
+        return lines;
+    }
+
+    private static final String[] BUILT_IN_DATA = {
+            "data.newline:      .asciiz       \"\\n\"",
+            "data.floatquery:   .asciiz       \"float?\"",
+            "data.intquery:     .asciiz       \"int?\"",
+            "data.trueString:   .asciiz       \"true\"",
+            "data.falseString:  .asciiz       \"false\"",
+    };
+
+    private static final String[] BUILT_IN_CODE = {
+            // Prints the current stack value assuming it's a bool
+            "func.printBool:",
+            "lw $a0, 0($sp)",
+            "beqz $a0, label.printBool.loadFalse",
+            "la $a0, data.trueString",
+            "j label.printBool.join",
+            "label.printBool.loadFalse:",
+            "la $a0, data.falseString",
+            "label.printBool.join:",
+            "li   $v0, 4",
+            "syscall",
+            "jr $ra",
+
+            // Prints the current stack value assuming it's a float
+            "func.printFloat:",
+            "l.s  $f12, 0($sp)",
+            "li   $v0,  2",
+            "syscall",
+            "jr $ra",
+
+            // Prints the current stack value, assuming it's an int
+            "func.printInt:",
+            "lw   $a0, 0($sp)",
+            "li   $v0, 1",
+            "syscall",
+            "jr $ra",
+
+            // Prints a newline
+            "func.println:",
+            "la   $a0, data.newline",
+            "li   $v0, 4",
+            "syscall",
+            "jr $ra",
+
+            // Reads a float onto the stack
+            "func.readFloat:",
+            "la   $a0, data.floatquery",
+            "li   $v0, 4",
+            "syscall",
+            "li   $v0, 6",
+            "syscall",
+            "mfc1 $v0, $f0",
+            "jr $ra",
+
+            // Reads an int onto the stack
+            "func.readInt:",
+            "la   $a0, data.intquery",
+            "li   $v0, 4",
+            "syscall",
+            "li   $v0, 5",
+            "syscall",
+            "jr $ra",
+    };
 }
@@ -0,0 +1,1039 @@
+package mips;
+
+import crux.Parser;
+import crux.Scanner;
+import types.TypeChecker;
+
+import java.io.BufferedReader;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+
+// Runs a Program in-process, emulating the subset of MIPS32 (and spim
+// pseudo-instructions and syscalls) that CodeGen and the built-in functions emit.
+//
+// The program is assembled once into a packed int[] of four slots per
+// instruction (opcode and three operands) with all labels resolved to
+// instruction indexes, so the dispatch loop neither parses nor allocates.
+public class Simulator {
+
+    private static final int TEXT_BASE = 0x00400000;
+    private static final int DATA_BASE = 0x10010000;
+    private static final int STACK_TOP = 0x7fffeffc;
+    private static final int STACK_SIZE = 1 << 20;
+    private static final int STACK_BASE = STACK_TOP + 4 - STACK_SIZE;
+
+    // jumping here (the initial $ra) halts the program, as returning from main does in spim
+    private static final int HALT_ADDRESS = 0;
+
+    private static final int REG_ZERO = 0;
+    private static final int REG_V0 = 2;
+    private static final int REG_A0 = 4;
+    private static final int REG_GP = 28;
+    private static final int REG_SP = 29;
+    private static final int REG_FP = 30;
+    private static final int REG_RA = 31;
+    // writes to $zero are redirected here when decoding, so $zero never changes
+    private static final int REG_DISCARD = 32;
+
+    private static final String[] REGISTER_NAMES = {
+            "zero", "at", "v0", "v1", "a0", "a1", "a2", "a3",
+            "t0", "t1", "t2", "t3", "t4", "t5", "t6", "t7",
+            "s0", "s1", "s2", "s3", "s4", "s5", "s6", "s7",
+            "t8", "t9", "k0", "k1", "gp", "sp", "fp", "ra"
+    };
+
+    // Opcodes ========================================
+
+    private static final int OP_FALL_OFF = 0;
+    private static final int OP_ADD = 1;
+    private static final int OP_ADDI = 2;
+    private static final int OP_ADDU = 3;
+    private static final int OP_ADDIU = 4;
+    private static final int OP_SUB = 5;
+    private static final int OP_SUBI = 6;
+    private static final int OP_SUBU = 7;
+    private static final int OP_SUBIU = 8;
+    private static final int OP_AND = 9;
+    private static final int OP_OR = 10;
+    private static final int OP_NOR = 11;
+    private static final int OP_MUL = 12;
+    private static final int OP_DIV = 13;
+    private static final int OP_SEQ = 14;
+    private static final int OP_SNE = 15;
+    private static final int OP_SGE = 16;
+    private static final int OP_SGT = 17;
+    private static final int OP_SLE = 18;
+    private static final int OP_SLT = 19;
+    private static final int OP_LI = 20;
+    private static final int OP_MOVE = 21;
+    private static final int OP_LW = 22;
+    private static final int OP_SW = 23;
+    private static final int OP_L_S = 24;
+    private static final int OP_S_S = 25;
+    private static final int OP_ADD_S = 26;
+    private static final int OP_SUB_S = 27;
+    private static final int OP_MUL_S = 28;
+    private static final int OP_DIV_S = 29;
+    private static final int OP_LI_S = 30;
+    private static final int OP_MFC1 = 31;
+    private static final int OP_MTC1 = 32;
+    private static final int OP_C_EQ_S = 33;
+    private static final int OP_C_LE_S = 34;
+    private static final int OP_C_LT_S = 35;
+    private static final int OP_BC1T = 36;
+    private static final int OP_BC1F = 37;
+    private static final int OP_BEQZ = 38;
+    private static final int OP_BNEZ = 39;
+    private static final int OP_BEQ = 40;
+    private static final int OP_BNE = 41;
+    private static final int OP_J = 42;
+    private static final int OP_JAL = 43;
+    private static final int OP_JR = 44;
+    private static final int OP_SYSCALL = 45;
+
+    // instructions whose operands are three registers: rd, rs, rt
+    private static final HashMap<String, Integer> REG3_OPS = new HashMap<>();
+    private static final HashMap<String, Integer> FLOAT3_OPS = new HashMap<>();
+
+    static {
+        REG3_OPS.put("and", OP_AND);
+        REG3_OPS.put("or", OP_OR);
+        REG3_OPS.put("nor", OP_NOR);
+        REG3_OPS.put("mul", OP_MUL);
+        REG3_OPS.put("div", OP_DIV);
+        REG3_OPS.put("seq", OP_SEQ);
+        REG3_OPS.put("sne", OP_SNE);
+        REG3_OPS.put("sge", OP_SGE);
+        REG3_OPS.put("sgt", OP_SGT);
+        REG3_OPS.put("sle", OP_SLE);
+        REG3_OPS.put("slt", OP_SLT);
+
+        FLOAT3_OPS.put("add.s", OP_ADD_S);
+        FLOAT3_OPS.put("sub.s", OP_SUB_S);
+        FLOAT3_OPS.put("mul.s", OP_MUL_S);
+        FLOAT3_OPS.put("div.s", OP_DIV_S);
+    }
+
+    // Machine state ==================================
+
+    // four slots per instruction: opcode, a, b, c
+    private final int[] code;
+    private final String[] text;
+    private final String[] functions;
+    private final int[] sourceLines;
+    private final String[] callees;
+    private final int entry;
+
+    private final int[] data;
+    private final int dataEnd;
+    private final int[] stack = new int[STACK_SIZE / 4];
+
+    private final int[] regs = new int[33];
+    private final int[] fregs = new int[32];
+
+    private final BufferedReader in;
+    private final PrintStream out;
+
+    private long instructionLimit = Long.MAX_VALUE;
+    private long instructionCount;
+    private long elapsedNanos;
+    private Profiler profiler;
+
+    public Simulator(Program program, InputStream in, PrintStream out) {
+        this.in = new BufferedReader(new InputStreamReader(in));
+        this.out = out;
+
+        final HashMap<String, Integer> dataLabels = new HashMap<>();
+        this.data = assembleData(program.dataLines(), dataLabels);
+        this.dataEnd = DATA_BASE + data.length * 4;
+
+        final Assembler asm = new Assembler(program.codeLines(), dataLabels);
+        this.code = asm.code;
+        this.text = asm.text;
+        this.functions = asm.functions;
+        this.sourceLines = asm.sourceLines;
+        this.callees = asm.callees;
+        this.entry = asm.entry;
+    }
+
+    public static class SimulatorException extends RuntimeException {
+
+        private static final long serialVersionUID = 1L;
+
+        public SimulatorException(String errorMessage) {
+            super(errorMessage);
+        }
+    }
+
+    // Stops the program with a SimulatorException once it has executed this many instructions
+    public void setInstructionLimit(long limit) {
+        instructionLimit = limit;
+    }
+
+    public long instructionCount() {
+        return instructionCount;
+    }
+
+    public long elapsedNanos() {
+        return elapsedNanos;
+    }
+
+    // Simulated instructions per second of wall clock time spent in run()
+    public double instructionsPerSecond() {
+        return elapsedNanos == 0 ? 0 : instructionCount * 1e9 / elapsedNanos;
+    }
+
+    // Collects execution counts for every instruction during the next run
+    public Profiler enableProfiling() {
+        final int n = text.length;
+        final Profiler.Kind[] kinds = new Profiler.Kind[n];
+        for (int pc = 0; pc < n; pc++) {
+            kinds[pc] = kindOf(code[pc * 4]);
+        }
+        profiler = new Profiler(functions, sourceLines, kinds, callees);
+        return profiler;
+    }
+
+    private static Profiler.Kind kindOf(int op) {
+        switch (op) {
+            case OP_FALL_OFF:
+                return Profiler.Kind.NONE;
+            case OP_LW:
+            case OP_L_S:
+                return Profiler.Kind.LOAD;
+            case OP_SW:
+            case OP_S_S:
+                return Profiler.Kind.STORE;
+            case OP_BC1T:
+            case OP_BC1F:
+            case OP_BEQZ:
+            case OP_BNEZ:
+            case OP_BEQ:
+            case OP_BNE:
+                return Profiler.Kind.BRANCH;
+            case OP_JAL:
+                return Profiler.Kind.CALL;
+            default:
+                return Profiler.Kind.OTHER;
+        }
+    }
+
+    // Runs the program from main until it exits or returns
+    public void run() {
+        regs[REG_GP] = 0x10008000;
+        regs[REG_SP] = STACK_TOP;
+        regs[REG_FP] = STACK_TOP;
+        regs[REG_RA] = HALT_ADDRESS;
+
+        final long start = System.nanoTime();
+        try {
+            execute(entry);
+        } finally {
+            elapsedNanos += System.nanoTime() - start;
+            out.flush();
+        }
+    }
+
+    private void execute(int pc) {
+        final int[] code = this.code;
+        final int[] regs = this.regs;
+        final int[] fregs = this.fregs;
+        final Profiler profiler = this.profiler;
+        final long limit = instructionLimit;
+        long count = instructionCount;
+        boolean fcc = false;
+
+        try {
+            while (true) {
+                if (++count > limit) {
+                    throw new SimulatorException("Instruction limit of " + limit + " exceeded.");
+                }
+                if (profiler != null) {
+                    profiler.executed(pc);
+                }
+                final int i = pc << 2;
+                final int a = code[i + 1];
+                final int b = code[i + 2];
+                final int c = code[i + 3];
+                pc++;
+
+                switch (code[i]) {
+                    case OP_ADD:
+                        regs[a] = addTrap(regs[b], regs[c]);
+                        break;
+                    case OP_ADDI:
+                        regs[a] = addTrap(regs[b], c);
+                        break;
+                    case OP_ADDU:
+                        regs[a] = regs[b] + regs[c];
+                        break;
+                    case OP_ADDIU:
+                        regs[a] = regs[b] + c;
+                        break;
+                    case OP_SUB:
+                        regs[a] = subTrap(regs[b], regs[c]);
+                        break;
+                    case OP_SUBI:
+                        regs[a] = subTrap(regs[b], c);
+                        break;
+                    case OP_SUBU:
+                        regs[a] = regs[b] - regs[c];
+                        break;
+                    case OP_SUBIU:
+                        regs[a] = regs[b] - c;
+                        break;
+                    case OP_AND:
+                        regs[a] = regs[b] & regs[c];
+                        break;
+                    case OP_OR:
+                        regs[a] = regs[b] | regs[c];
+                        break;
+                    case OP_NOR:
+                        regs[a] = ~(regs[b] | regs[c]);
+                        break;
+                    case OP_MUL:
+                        regs[a] = regs[b] * regs[c];
+                        break;
+                    case OP_DIV:
+                        if (regs[c] == 0) {
+                            throw new SimulatorException("Division by zero: " + text[pc - 1]);
+                        }
+                        regs[a] = regs[b] / regs[c];
+                        break;
+                    case OP_SEQ:
+                        regs[a] = regs[b] == regs[c] ? 1 : 0;
+                        break;
+                    case OP_SNE:
+                        regs[a] = regs[b] != regs[c] ? 1 : 0;
+                        break;
+                    case OP_SGE:
+                        regs[a] = regs[b] >= regs[c] ? 1 : 0;
+                        break;
+                    case OP_SGT:
+                        regs[a] = regs[b] > regs[c] ? 1 : 0;
+                        break;
+                    case OP_SLE:
+                        regs[a] = regs[b] <= regs[c] ? 1 : 0;
+                        break;
+                    case OP_SLT:
+                        regs[a] = regs[b] < regs[c] ? 1 : 0;
+                        break;
+                    case OP_LI:
+                        regs[a] = c;
+                        break;
+                    case OP_MOVE:
+                        regs[a] = regs[b];
+                        break;
+                    case OP_LW:
+                        regs[a] = load(regs[b] + c);
+                        break;
+                    case OP_SW:
+                        store(regs[b] + c, regs[a]);
+                        break;
+                    case OP_L_S:
+                        fregs[a] = load(regs[b] + c);
+                        break;
+                    case OP_S_S:
+                        store(regs[b] + c, fregs[a]);
+                        break;
+                    case OP_ADD_S:
+                        fregs[a] = floatBits(asFloat(fregs[b]) + asFloat(fregs[c]));
+                        break;
+                    case OP_SUB_S:
+                        fregs[a] = floatBits(asFloat(fregs[b]) - asFloat(fregs[c]));
+                        break;
+                    case OP_MUL_S:
+                        fregs[a] = floatBits(asFloat(fregs[b]) * asFloat(fregs[c]));
+                        break;
+                    case OP_DIV_S:
+                        fregs[a] = floatBits(asFloat(fregs[b]) / asFloat(fregs[c]));
+                        break;
+                    case OP_LI_S:
+                        fregs[a] = c;
+                        break;
+                    case OP_MFC1:
+                        regs[a] = fregs[b];
+                        break;
+                    case OP_MTC1:
+                        fregs[b] = regs[a];
+                        break;
+                    case OP_C_EQ_S:
+                        fcc = asFloat(fregs[b]) == asFloat(fregs[c]);
+                        break;
+                    case OP_C_LE_S:
+                        fcc = asFloat(fregs[b]) <= asFloat(fregs[c]);
+                        break;
+                    case OP_C_LT_S:
+                        fcc = asFloat(fregs[b]) < asFloat(fregs[c]);
+                        break;
+                    case OP_BC1T:
+                        if (fcc) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_BC1F:
+                        if (!fcc) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_BEQZ:
+                        if (regs[b] == 0) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_BNEZ:
+                        if (regs[b] != 0) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_BEQ:
+                        if (regs[a] == regs[b]) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_BNE:
+                        if (regs[a] != regs[b]) {
+                            pc = branch(pc - 1, c);
+                        }
+                        break;
+                    case OP_J:
+                        pc = c;
+                        break;
+                    case OP_JAL:
+                        regs[REG_RA] = TEXT_BASE + pc * 4;
+                        pc = c;
+                        break;
+                    case OP_JR: {
+                        final int address = regs[b];
+                        if (address == HALT_ADDRESS) {
+                            return;
+                        }
+                        pc = (address - TEXT_BASE) >> 2;
+                        if (pc < 0 || pc >= text.length || (address & 3) != 0) {
+                            throw new SimulatorException(String.format("Jump to invalid address 0x%08x.", address));
+                        }
+                    }
+                    break;
+                    case OP_SYSCALL:
+                        if (!syscall()) {
+                            return;
+                        }
+                        break;
+                    default:
+                        throw new SimulatorException("Program counter left the text segment.");
+                }
+            }
+        } finally {
+            instructionCount = count;
+        }
+    }
+
+    private int branch(int pc, int target) {
+        if (profiler != null) {
+            profiler.taken(pc);
+        }
+        return target;
+    }
+
+    private static float asFloat(int bits) {
+        return Float.intBitsToFloat(bits);
+    }
+
+    private static int floatBits(float value) {
+        return Float.floatToRawIntBits(value);
+    }
+
+    // Returns false if the program asked to exit
+    private boolean syscall() {
+        switch (regs[REG_V0]) {
+            case 1:
+                out.print(regs[REG_A0]);
+                return true;
+            case 2:
+                out.print(formatFloat(asFloat(fregs[12])));
+                return true;
+            case 4:
+                printString(regs[REG_A0]);
+                return true;
+            case 5:
+                regs[REG_V0] = readInt();
+                return true;
+            case 6:
+                fregs[0] = floatBits(readFloat());
+                return true;
+            case 10:
+                return false;
+            default:
+                throw new SimulatorException("Unsupported syscall " + regs[REG_V0] + ".");
+        }
+    }
+
+    // spim prints single precision floats with "%.8f"
+    public static String formatFloat(float value) {
+        if (Float.isNaN(value) || Float.isInfinite(value)) {
+            return String.valueOf(value);
+        }
+        return new BigDecimal(value).setScale(8, RoundingMode.HALF_EVEN).toPlainString();
+    }
+
+    private void printString(int address) {
+        for (int b = loadByte(address); b != 0; b = loadByte(++address)) {
+            out.print((char) b);
+        }
+    }
+
+    private String readLine() {
+        try {
+            final String line = in.readLine();
+            return line == null ? "" : line.trim();
+        } catch (IOException e) {
+            throw new SimulatorException("Error reading input: " + e.getMessage());
+        }
+    }
+
+    private int readInt() {
+        return parseInt(readLine());
+    }
+
+    private float readFloat() {
+        return parseFloat(readLine());
+    }
+
+    // spim reads an int from the leading sign and digits of a line, or 0
+    public static int parseInt(String line) {
+        int end = 0;
+        if (end < line.length() && (line.charAt(end) == '-' || line.charAt(end) == '+')) {
+            end++;
+        }
+        while (end < line.length() && Character.isDigit(line.charAt(end))) {
+            end++;
+        }
+        try {
+            return (int) Long.parseLong(line.substring(0, end));
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    public static float parseFloat(String line) {
+        try {
+            return Float.parseFloat(line);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+
+    private static int addTrap(int a, int b) {
+        final int r = a + b;
+        if (((a ^ r) & (b ^ r)) < 0) {
+            throw new SimulatorException("Arithmetic overflow.");
+        }
+        return r;
+    }
+
+    private static int subTrap(int a, int b) {
+        final int r = a - b;
+        if (((a ^ b) & (a ^ r)) < 0) {
+            throw new SimulatorException("Arithmetic overflow.");
+        }
+        return r;
+    }
+
+    // Memory ==========================================
+
+    private int load(int address) {
+        final int offset = address - STACK_BASE;
+        if (offset >= 0 && offset < STACK_SIZE && (address & 3) == 0) {
+            return stack[offset >> 2];
+        }
+        return data[dataIndex(address)];
+    }
+
+    private void store(int address, int value) {
+        final int offset = address - STACK_BASE;
+        if (offset >= 0 && offset < STACK_SIZE && (address & 3) == 0) {
+            stack[offset >> 2] = value;
+        } else {
+            data[dataIndex(address)] = value;
+        }
+    }
+
+    // Word index into the data segment, for an address that is not a stack word
+    private int dataIndex(int address) {
+        if ((address & 3) != 0) {
+            throw new SimulatorException(String.format("Unaligned word access at 0x%08x.", address));
+        }
+        if (address < DATA_BASE || address >= dataEnd) {
+            throw new SimulatorException(String.format("Address 0x%08x is out of range.", address));
+        }
+        return (address - DATA_BASE) >> 2;
+    }
+
+    private int loadByte(int address) {
+        final int offset = address - STACK_BASE;
+        final int word = offset >= 0 && offset < STACK_SIZE ? stack[offset >> 2] : data[dataIndex(address & ~3)];
+        return (word >>> ((address & 3) * 8)) & 0xff;
+    }
+
+    // Assembler =======================================
+
+    private static String stripComment(String line) {
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            final char c = line.charAt(i);
+            if (c == '"' && (i == 0 || line.charAt(i - 1) != '\\')) {
+                quoted = !quoted;
+            } else if (c == '#' && !quoted) {
+                return line.substring(0, i).trim();
+            }
+        }
+        return line.trim();
+    }
+
+    private static int[] assembleData(List<String> lines, HashMap<String, Integer> labels) {
+        final ArrayList<Byte> bytes = new ArrayList<>();
+        for (String line : lines) {
+            String rest = stripComment(line);
+            final int colon = rest.indexOf(':');
+            if (colon >= 0 && !rest.startsWith(".")) {
+                labels.put(rest.substring(0, colon).trim(), DATA_BASE + bytes.size());
+                rest = rest.substring(colon + 1).trim();
+            }
+            if (rest.isEmpty()) {
+                continue;
+            }
+
+            if (rest.startsWith(".word")) {
+                while (bytes.size() % 4 != 0) {
+                    bytes.add((byte) 0);
+                }
+                for (String word : rest.substring(5).split(",")) {
+                    final int value = Integer.decode(word.trim());
+                    for (int i = 0; i < 4; i++) {
+                        bytes.add((byte) (value >>> (i * 8)));
+                    }
+                }
+            } else if (rest.startsWith(".space")) {
+                final int n = Integer.decode(rest.substring(6).trim());
+                for (int i = 0; i < n; i++) {
+                    bytes.add((byte) 0);
+                }
+            } else if (rest.startsWith(".asciiz")) {
+                final String literal = rest.substring(7).trim();
+                final String str = literal.substring(1, literal.length() - 1);
+                for (int i = 0; i < str.length(); i++) {
+                    char c = str.charAt(i);
+                    if (c == '\\' && i + 1 < str.length()) {
+                        c = unescape(str.charAt(++i));
+                    }
+                    bytes.add((byte) c);
+                }
+                bytes.add((byte) 0);
+            } else {
+                throw new SimulatorException("Unsupported data directive: " + line);
+            }
+        }
+
+        final int[] words = new int[(bytes.size() + 3) / 4];
+        for (int i = 0; i < bytes.size(); i++) {
+            words[i / 4] |= (bytes.get(i) & 0xff) << ((i % 4) * 8);
+        }
+        return words;
+    }
+
+    private static char unescape(char c) {
+        switch (c) {
+            case 'n':
+                return '\n';
+            case 't':
+                return '\t';
+            case '0':
+                return '\0';
+            default:
+                return c;
+        }
+    }
+
+    private static void trackSourceLine(String comment, ArrayDeque<Integer> sourceLines) {
+        if (comment.startsWith("#begin")) {
+            final int open = comment.indexOf('(');
+            final int comma = comment.indexOf(',', open);
+            try {
+                sourceLines.push(Integer.parseInt(comment.substring(open + 1, comma)));
+            } catch (RuntimeException e) {
+                sourceLines.push(sourceLines.isEmpty() ? 0 : sourceLines.peek());
+            }
+        } else if (comment.startsWith("#end") && !sourceLines.isEmpty()) {
+            sourceLines.pop();
+        }
+    }
+
+    // Assembles the code lines in two passes: the first numbers the
+    // instructions and binds each label to the index of the instruction that
+    // follows it, the second decodes every instruction into its four slots.
+    private static class Assembler {
+
+        private final int[] code;
+        private final String[] text;
+        private final String[] functions;
+        private final int[] sourceLines;
+        private final String[] callees;
+        private final int entry;
+
+        private final HashMap<String, Integer> codeLabels = new HashMap<>();
+        private final HashMap<String, Integer> dataLabels;
+        private String current;
+
+        Assembler(List<String> lines, HashMap<String, Integer> dataLabels) {
+            this.dataLabels = dataLabels;
+
+            final ArrayList<String> instructions = new ArrayList<>();
+            final ArrayList<String> functionList = new ArrayList<>();
+            final ArrayList<Integer> lineList = new ArrayList<>();
+            final ArrayDeque<Integer> lineStack = new ArrayDeque<>();
+            String function = null;
+            for (String raw : lines) {
+                final String line = stripComment(raw);
+                if (line.endsWith(":")) {
+                    final String label = line.substring(0, line.length() - 1);
+                    codeLabels.put(label, instructions.size());
+                    if (label.equals("main") || (label.startsWith("func.") && label.indexOf('.', 5) < 0)) {
+                        function = label;
+                    }
+                } else if (line.isEmpty()) {
+                    // CodeGen brackets the code of every node with "#begin node" and "#end node"
+                    trackSourceLine(raw.trim(), lineStack);
+                } else if (!line.startsWith(".")) {
+                    instructions.add(line);
+                    functionList.add(function);
+                    lineList.add(lineStack.isEmpty() ? 0 : lineStack.peek());
+                }
+            }
+
+            // a trailing sentinel catches execution running off the end of the text segment
+            final int n = instructions.size() + 1;
+            code = new int[n * 4];
+            text = new String[n];
+            functions = new String[n];
+            sourceLines = new int[n];
+            callees = new String[n];
+            text[n - 1] = "";
+            for (int pc = 0; pc < n - 1; pc++) {
+                text[pc] = instructions.get(pc);
+                functions[pc] = functionList.get(pc);
+                sourceLines[pc] = lineList.get(pc);
+                current = text[pc];
+                decode(pc * 4, current.split("[\\s,]+"));
+            }
+
+            final Integer main = codeLabels.get("main");
+            if (main == null) {
+                throw new SimulatorException("No main function to run.");
+            }
+            entry = main;
+        }
+
+        private void emit(int slot, int op, int a, int b, int c) {
+            code[slot] = op;
+            code[slot + 1] = a;
+            code[slot + 2] = b;
+            code[slot + 3] = c;
+        }
+
+        private void decode(int slot, String[] t) {
+            final String mnemonic = t[0];
+            switch (mnemonic) {
+                case "add":
+                case "addu":
+                case "sub":
+                case "subu": {
+                    expectOperands(t, 3);
+                    final int rd = destination(t[1]);
+                    final int rs = register(t[2]);
+                    if (t[3].startsWith("$")) {
+                        final int op = mnemonic.equals("add") ? OP_ADD
+                                : mnemonic.equals("addu") ? OP_ADDU
+                                : mnemonic.equals("sub") ? OP_SUB : OP_SUBU;
+                        emit(slot, op, rd, rs, register(t[3]));
+                    } else {
+                        // spim accepts an immediate as the last operand
+                        final int op = mnemonic.equals("add") ? OP_ADDI
+                                : mnemonic.equals("addu") ? OP_ADDIU
+                                : mnemonic.equals("sub") ? OP_SUBI : OP_SUBIU;
+                        emit(slot, op, rd, rs, immediate(t[3]));
+                    }
+                }
+                break;
+                case "addi":
+                case "addiu": {
+                    expectOperands(t, 3);
+                    final int op = mnemonic.equals("addi") ? OP_ADDI : OP_ADDIU;
+                    emit(slot, op, destination(t[1]), register(t[2]), immediate(t[3]));
+                }
+                break;
+                case "li": {
+                    expectOperands(t, 2);
+                    emit(slot, OP_LI, destination(t[1]), 0, immediate(t[2]));
+                }
+                break;
+                case "la": {
+                    expectOperands(t, 2);
+                    final Integer address = dataLabels.get(t[2]);
+                    if (address == null) {
+                        throw error("Unknown data label " + t[2]);
+                    }
+                    emit(slot, OP_LI, destination(t[1]), 0, address);
+                }
+                break;
+                case "move": {
+                    expectOperands(t, 2);
+                    emit(slot, OP_MOVE, destination(t[1]), register(t[2]), 0);
+                }
+                break;
+                case "lw":
+                case "sw":
+                case "l.s":
+                case "s.s": {
+                    expectOperands(t, 2);
+                    final int open = t[2].indexOf('(');
+                    if (open < 0 || !t[2].endsWith(")")) {
+                        throw error("Expected offset(register)");
+                    }
+                    final int offset = open == 0 ? 0 : immediate(t[2].substring(0, open));
+                    final int base = register(t[2].substring(open + 1, t[2].length() - 1));
+                    switch (mnemonic) {
+                        case "lw":
+                            emit(slot, OP_LW, destination(t[1]), base, offset);
+                            break;
+                        case "sw":
+                            emit(slot, OP_SW, register(t[1]), base, offset);
+                            break;
+                        case "l.s":
+                            emit(slot, OP_L_S, floatRegister(t[1]), base, offset);
+                            break;
+                        default:
+                            emit(slot, OP_S_S, floatRegister(t[1]), base, offset);
+                            break;
+                    }
+                }
+                break;
+                case "li.s": {
+                    expectOperands(t, 2);
+                    try {
+                        emit(slot, OP_LI_S, floatRegister(t[1]), 0, floatBits(Float.parseFloat(t[2])));
+                    } catch (NumberFormatException e) {
+                        throw error("Invalid float immediate " + t[2]);
+                    }
+                }
+                break;
+                case "mfc1": {
+                    expectOperands(t, 2);
+                    emit(slot, OP_MFC1, destination(t[1]), floatRegister(t[2]), 0);
+                }
+                break;
+                case "mtc1": {
+                    expectOperands(t, 2);
+                    emit(slot, OP_MTC1, register(t[1]), floatRegister(t[2]), 0);
+                }
+                break;
+                case "c.eq.s":
+                case "c.le.s":
+                case "c.lt.s": {
+                    expectOperands(t, 2);
+                    final int op = mnemonic.equals("c.eq.s") ? OP_C_EQ_S
+                            : mnemonic.equals("c.le.s") ? OP_C_LE_S : OP_C_LT_S;
+                    emit(slot, op, 0, floatRegister(t[1]), floatRegister(t[2]));
+                }
+                break;
+                case "beqz":
+                case "bnez": {
+                    expectOperands(t, 2);
+                    emit(slot, mnemonic.equals("beqz") ? OP_BEQZ : OP_BNEZ, 0, register(t[1]), label(t[2]));
+                }
+                break;
+                case "beq":
+                case "bne": {
+                    expectOperands(t, 3);
+                    emit(slot, mnemonic.equals("beq") ? OP_BEQ : OP_BNE, register(t[1]), register(t[2]),
+                            label(t[3]));
+                }
+                break;
+                case "j":
+                case "bc1t":
+                case "bc1f": {
+                    expectOperands(t, 1);
+                    final int op = mnemonic.equals("j") ? OP_J : mnemonic.equals("bc1t") ? OP_BC1T : OP_BC1F;
+                    emit(slot, op, 0, 0, label(t[1]));
+                }
+                break;
+                case "jal": {
+                    expectOperands(t, 1);
+                    emit(slot, OP_JAL, 0, 0, label(t[1]));
+                    callees[slot / 4] = t[1];
+                }
+                break;
+                case "jr": {
+                    expectOperands(t, 1);
+                    emit(slot, OP_JR, 0, register(t[1]), 0);
+                }
+                break;
+                case "syscall": {
+                    expectOperands(t, 0);
+                    emit(slot, OP_SYSCALL, 0, 0, 0);
+                }
+                break;
+                default: {
+                    Integer op = REG3_OPS.get(mnemonic);
+                    if (op != null) {
+                        expectOperands(t, 3);
+                        emit(slot, op, destination(t[1]), register(t[2]), register(t[3]));
+                        break;
+                    }
+                    op = FLOAT3_OPS.get(mnemonic);
+                    if (op != null) {
+                        expectOperands(t, 3);
+                        emit(slot, op, floatRegister(t[1]), floatRegister(t[2]), floatRegister(t[3]));
+                        break;
+                    }
+                    throw error("Unsupported instruction");
+                }
+            }
+        }
+
+        private SimulatorException error(String message) {
+            return new SimulatorException(message + " in: " + current);
+        }
+
+        private void expectOperands(String[] tokens, int count) {
+            if (tokens.length != count + 1) {
+                throw error("Expected " + count + " operands");
+            }
+        }
+
+        private int destination(String name) {
+            final int reg = register(name);
+            return reg == REG_ZERO ? REG_DISCARD : reg;
+        }
+
+        private int register(String name) {
+            if (name.startsWith("$")) {
+                final String reg = name.substring(1);
+                for (int i = 0; i < REGISTER_NAMES.length; i++) {
+                    if (REGISTER_NAMES[i].equals(reg)) {
+                        return i;
+                    }
+                }
+                if (reg.equals("s8")) {
+                    return REG_FP;
+                }
+                try {
+                    final int n = Integer.parseInt(reg);
+                    if (n >= 0 && n < 32) {
+                        return n;
+                    }
+                } catch (NumberFormatException e) {
+                    // fall through to the error below
+                }
+            }
+            throw error("Invalid register " + name);
+        }
+
+        private int floatRegister(String name) {
+            if (name.startsWith("$f")) {
+                try {
+                    final int n = Integer.parseInt(name.substring(2));
+                    if (n >= 0 && n < 32) {
+                        return n;
+                    }
+                } catch (NumberFormatException e) {
+                    // fall through to the error below
+                }
+            }
+            throw error("Invalid floating point register " + name);
+        }
+
+        private int immediate(String value) {
+            try {
+                return (int) (long) Long.decode(value);
+            } catch (NumberFormatException e) {
+                throw error("Invalid immediate " + value);
+            }
+        }
+
+        private int label(String name) {
+            final Integer target = codeLabels.get(name);
+            if (target == null) {
+                throw error("Unknown label " + name);
+            }
+            return target;
+        }
+    }
+
+    // Compiles a crux source file and runs it against stdin/stdout, in place of spim.
+    // With -profile, an execution profile is written to stderr afterwards.
+    public static void main(String[] args) {
+        final boolean profile = args.length > 0 && args[0].equals("-profile");
+        if (args.length != (profile ? 2 : 1)) {
+            System.err.println("Usage: mips.Simulator [-profile] file.crx");
+            System.exit(-1);
+        }
+        String sourceFilename = args[args.length - 1];
+
+        Scanner s = null;
+        try {
+            s = new Scanner(new FileReader(sourceFilename));
+        } catch (IOException e) {
+            e.printStackTrace();
+            System.err.println("Error accessing the source file: \"" + sourceFilename + "\"");
+            System.exit(-2);
+        }
+
+        Parser p = new Parser(s);
+        ast.Command syntaxTree = p.parse();
+        if (p.hasError()) {
+            System.out.println("Error parsing file " + sourceFilename);
+            System.out.println(p.errorReport());
+            System.exit(-3);
+        }
+
+        TypeChecker tc = new TypeChecker();
+        tc.check(syntaxTree);
+        if (tc.hasError()) {
+            System.out.println("Error type-checking file " + sourceFilename);
+            System.out.println(tc.errorReport());
+            System.exit(-4);
+        }
+
+        CodeGen cg = new CodeGen(tc);
+        cg.generate(syntaxTree);
+        if (cg.hasError()) {
+            System.out.println("Error generating code for file " + sourceFilename);
+            System.out.println(cg.errorReport());
+            System.exit(-5);
+        }
+
+        try {
+            final Simulator sim = new Simulator(cg.getProgram(), System.in, System.out);
+            final Profiler profiler = profile ? sim.enableProfiling() : null;
+            sim.run();
+            if (profiler != null) {
+                profiler.report(System.err);
+                System.err.println(String.format("%d instructions in %.3f ms (%.0f instructions/s)",
+                        sim.instructionCount(), sim.elapsedNanos() / 1e6, sim.instructionsPerSecond()));
+            }
+        } catch (SimulatorException e) {
+            System.out.println();
+            System.out.println("Error running file " + sourceFilename + ": " + e.getMessage());
+            System.exit(-7);
+        }
+    }
+}
@@ -4,10 +4,14 @@ public class AddressType extends Type {
 
     private Type base;
 
-    public AddressType(Type base) {
+    AddressType(Type base) {
         this.base = base;
     }
 
+    public static AddressType of(Type base) {
+        return base.address();
+    }
+
     public Type base() {
         return base;
     }
@@ -27,17 +31,6 @@ public class AddressType extends Type {
         if (source instanceof VoidType || source instanceof ErrorType) {
             return super.assign(source);
         }
-        return new AddressType(source);
-    }
-
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof AddressType))
-            return false;
-
-        AddressType aType = (AddressType) that;
-        return this.base.equivalent(aType.base);
+        return of(source);
     }
 }
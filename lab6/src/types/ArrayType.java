@@ -1,13 +1,25 @@
 package types;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class ArrayType extends Type {
 
+    private static final Interner<ArrayType> interned = new Interner<>();
+
+    // held so the interned entry lives as long as this type
+    private final List<Object> key;
     private Type base;
     private int extent;
 
-    public ArrayType(int extent, Type base) {
-        this.extent = extent;
-        this.base = base;
+    private ArrayType(List<Object> key) {
+        this.key = key;
+        this.extent = (Integer) key.get(0);
+        this.base = (Type) key.get(1);
+    }
+
+    public static ArrayType of(int extent, Type base) {
+        return interned.intern(Arrays.asList(extent, base), ArrayType::new);
     }
 
     public int extent() {
@@ -30,15 +42,4 @@ public class ArrayType extends Type {
     public String toString() {
         return "array[" + extent + "," + base + "]";
     }
-
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof ArrayType))
-            return false;
-
-        ArrayType aType = (ArrayType) that;
-        return this.extent == aType.extent && base.equivalent(aType.base);
-    }
 }
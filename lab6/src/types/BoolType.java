@@ -2,7 +2,9 @@ package types;
 
 public class BoolType extends Type {
 
-    public BoolType() {
+    public static final BoolType INSTANCE = new BoolType();
+
+    private BoolType() {
     }
 
     @Override
@@ -15,7 +17,7 @@ public class BoolType extends Type {
         if (!(that instanceof BoolType)) {
             return super.and(that);
         }
-        return new BoolType();
+        return this;
     }
 
     @Override
@@ -23,28 +25,18 @@ public class BoolType extends Type {
         if (!(that instanceof BoolType)) {
             return super.or(that);
         }
-        return new BoolType();
+        return this;
     }
 
     @Override
     public Type assign(Type source) {
         if (!(source instanceof BoolType))
             return super.assign(source);
-        return new BoolType();
+        return this;
     }
 
     @Override
     public Type not() {
-        return new BoolType();
-    }
-
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof BoolType))
-            return false;
-
-        return true;
+        return this;
     }
-}    
+}
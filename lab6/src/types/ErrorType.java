@@ -1,20 +1,32 @@
 package types;
 
+import java.util.function.Supplier;
+
 public class ErrorType extends Type {
 
+    private Supplier<String> format;
     private String message;
 
     public ErrorType(String message) {
         this.message = message;
     }
 
+    // The message is only built if it is read
+    public ErrorType(Supplier<String> format) {
+        this.format = format;
+    }
+
     public String getMessage() {
+        if (message == null) {
+            message = format.get();
+            format = null;
+        }
         return message;
     }
 
     @Override
     public String toString() {
-        return "ErrorType(" + message + ")";
+        return "ErrorType(" + getMessage() + ")";
     }
 
     @Override
@@ -24,6 +36,6 @@ public class ErrorType extends Type {
         if (!(that instanceof ErrorType))
             return false;
 
-        return message.equals(((ErrorType) that).message);
+        return getMessage().equals(((ErrorType) that).getMessage());
     }
 }
@@ -2,62 +2,55 @@ package types;
 
 public class FloatType extends Type {
 
-    public FloatType() {
+    public static final FloatType INSTANCE = new FloatType();
+
+    private FloatType() {
     }
 
     @Override
     public Type add(Type that) {
         if (!(that instanceof FloatType))
             return super.add(that);
-        return new FloatType();
+        return this;
     }
 
     @Override
     public Type sub(Type that) {
         if (!(that instanceof FloatType))
             return super.sub(that);
-        return new FloatType();
+        return this;
     }
 
     @Override
     public Type mul(Type that) {
         if (!(that instanceof FloatType))
             return super.mul(that);
-        return new FloatType();
+        return this;
     }
 
     @Override
     public Type div(Type that) {
         if (!(that instanceof FloatType))
             return super.div(that);
-        return new FloatType();
+        return this;
     }
 
     @Override
     public Type compare(Type that) {
         if (!(that instanceof FloatType))
             return super.compare(that);
-        return new BoolType();
+        return BoolType.INSTANCE;
     }
 
     @Override
     public Type assign(Type source) {
         if (!(source instanceof FloatType))
             return super.assign(source);
-        return new FloatType();
+        return this;
     }
 
     @Override
     public String toString() {
         return "float";
     }
-
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof FloatType))
-            return false;
-        return true;
-    }
 }
@@ -1,13 +1,25 @@
 package types;
 
+import java.util.Arrays;
+import java.util.List;
+
 public class FuncType extends Type {
 
+    private static final Interner<FuncType> interned = new Interner<>();
+
+    // held so the interned entry lives as long as this type
+    private final List<Object> key;
     private TypeList args;
     private Type ret;
 
-    public FuncType(TypeList args, Type returnType) {
-        this.args = args;
-        this.ret = returnType;
+    private FuncType(List<Object> key) {
+        this.key = key;
+        this.args = (TypeList) key.get(0);
+        this.ret = (Type) key.get(1);
+    }
+
+    public static FuncType of(TypeList args, Type returnType) {
+        return interned.intern(Arrays.asList(args, returnType), FuncType::new);
     }
 
     public Type returnType() {
@@ -31,15 +43,4 @@ public class FuncType extends Type {
     public String toString() {
         return "func(" + args + "):" + ret;
     }
-
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof FuncType))
-            return false;
-
-        FuncType aType = (FuncType) that;
-        return this.ret.equivalent(aType.ret) && this.args.equivalent(aType.args);
-    }
 }
@@ -0,0 +1,26 @@
+package types;
+
+import java.lang.ref.WeakReference;
+import java.util.List;
+import java.util.WeakHashMap;
+import java.util.function.Function;
+
+// Maps a list of components to the one type built from them. Components
+// are compared by identity, since they are interned themselves. Each type
+// must hold on to its key: entries are weak, so a type is dropped from the
+// table once nothing else refers to it and a compile server does not
+// accumulate the types of every program it has seen.
+class Interner<T extends Type> {
+
+    private final WeakHashMap<List<Object>, WeakReference<T>> table = new WeakHashMap<>();
+
+    synchronized T intern(List<Object> key, Function<List<Object>, T> constructor) {
+        final WeakReference<T> ref = table.get(key);
+        T type = ref == null ? null : ref.get();
+        if (type == null) {
+            type = constructor.apply(key);
+            table.put(key, new WeakReference<>(type));
+        }
+        return type;
+    }
+}
@@ -1,63 +1,82 @@
 package types;
 
+// Types are hash-consed: there is one instance of each primitive type, and
+// array, address, function and list types are interned on their
+// components, so two types are equivalent exactly when they are the same
+// object. Only ErrorType is not interned; its message is built the first
+// time it is read.
 public abstract class Type {
 
+    private AddressType address;
+
     public static Type getBaseType(String typeStr) {
-        if (typeStr.equals("int")) return new IntType();
-        if (typeStr.equals("float")) return new FloatType();
-        if (typeStr.equals("bool")) return new BoolType();
-        if (typeStr.equals("void")) return new VoidType();
-        return new ErrorType("Unkown type: " + typeStr);
+        if (typeStr.equals("int")) return IntType.INSTANCE;
+        if (typeStr.equals("float")) return FloatType.INSTANCE;
+        if (typeStr.equals("bool")) return BoolType.INSTANCE;
+        if (typeStr.equals("void")) return VoidType.INSTANCE;
+        return new ErrorType(() -> "Unkown type: " + typeStr);
+    }
+
+    // Each type has at most one address type, so it is kept here rather
+    // than in an intern table
+    synchronized AddressType address() {
+        if (address == null) {
+            address = new AddressType(this);
+        }
+        return address;
     }
 
     public Type add(Type that) {
-        return new ErrorType("Cannot add " + this + " with " + that + ".");
+        return new ErrorType(() -> "Cannot add " + this + " with " + that + ".");
     }
 
     public Type sub(Type that) {
-        return new ErrorType("Cannot subtract " + that + " from " + this + ".");
+        return new ErrorType(() -> "Cannot subtract " + that + " from " + this + ".");
     }
 
     public Type mul(Type that) {
-        return new ErrorType("Cannot multiply " + this + " with " + that + ".");
+        return new ErrorType(() -> "Cannot multiply " + this + " with " + that + ".");
     }
 
     public Type div(Type that) {
-        return new ErrorType("Cannot divide " + this + " by " + that + ".");
+        return new ErrorType(() -> "Cannot divide " + this + " by " + that + ".");
     }
 
     public Type and(Type that) {
-        return new ErrorType("Cannot compute " + this + " and " + that + ".");
+        return new ErrorType(() -> "Cannot compute " + this + " and " + that + ".");
     }
 
     public Type or(Type that) {
-        return new ErrorType("Cannot compute " + this + " or " + that + ".");
+        return new ErrorType(() -> "Cannot compute " + this + " or " + that + ".");
     }
 
     public Type not() {
-        return new ErrorType("Cannot negate " + this + ".");
+        return new ErrorType(() -> "Cannot negate " + this + ".");
     }
 
     public Type compare(Type that) {
-        return new ErrorType("Cannot compare " + this + " with " + that + ".");
+        return new ErrorType(() -> "Cannot compare " + this + " with " + that + ".");
     }
 
     public Type deref() {
-        return new ErrorType("Cannot dereference " + this);
+        return new ErrorType(() -> "Cannot dereference " + this);
     }
 
     public Type index(Type that) {
-        return new ErrorType("Cannot index " + this + " with " + that + ".");
+        return new ErrorType(() -> "Cannot index " + this + " with " + that + ".");
     }
 
     public Type call(Type args) {
-        return new ErrorType("Cannot call " + this + " using " + args + ".");
+        return new ErrorType(() -> "Cannot call " + this + " using " + args + ".");
     }
 
     public Type assign(Type source) {
-        return new ErrorType("Cannot assign " + source + " to " + this + ".");
+        return new ErrorType(() -> "Cannot assign " + source + " to " + this + ".");
     }
 
-    // Perform a structural equivalence test
-    abstract public boolean equivalent(Type that);
+    // Perform a structural equivalence test; interned types are
+    // structurally equivalent only to themselves
+    public boolean equivalent(Type that) {
+        return this == that;
+    }
 }
@@ -1,14 +1,28 @@
 package types;
 
 import ast.*;
+import crux.Diagnostics;
 import crux.Symbol;
 
-import java.util.HashMap;
-
-public class TypeChecker implements CommandVisitor {
-
-    private HashMap<Visitable, Type> typeMap;
-    private StringBuffer errorBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+public class TypeChecker extends SwitchVisitor implements Traversal.Visitor {
+
+    // indexed by Command.id() - base; low and high bound the ids put so
+    // far. The array is replaced when it grows, so it is volatile: a
+    // pipelined CodeGen reads the types of checked declarations while later
+    // ones are still being put. base is 0 until release(), after which the
+    // array starts again at the ids of the next declaration put, so a
+    // compile that releases each declaration only needs an array as large
+    // as its largest declaration, not as the whole program.
+    private volatile Type[] types;
+    private int base;
+    private int low;
+    private int high;
+    private Diagnostics diagnostics;
 
     /* Useful error strings:
      *
@@ -29,96 +43,214 @@ public class TypeChecker implements CommandVisitor {
      */
 
     private Symbol currentFunction;
+    private int threads;
+    private ForkJoinPool pool;
 
     public TypeChecker() {
-        typeMap = new HashMap<>();
-        errorBuffer = new StringBuffer();
+        types = new Type[64];
+        low = Integer.MAX_VALUE;
+        diagnostics = new Diagnostics();
     }
 
-    private void reportError(int lineNum, int charPos, String message) {
-        errorBuffer.append("TypeError(")
-                .append(lineNum)
-                .append(",")
-                .append(charPos)
-                .append(")");
-        errorBuffer.append("[")
-                .append(message)
-                .append("]")
-                .append("\n");
+    // Checks function bodies on up to the given number of threads. Bodies
+    // only depend on the signatures the parser already stored in each
+    // Symbol, so every declaration is checked by a worker. The declarations'
+    // ids do not overlap, so the workers put their types straight into this
+    // checker's array; each has its own error buffer, and these are merged
+    // in source order, so the error report is the same as the serial
+    // checker's. With one thread or fewer, this is the serial checker.
+    public TypeChecker(int threads) {
+        this();
+        this.threads = threads > 1 ? threads : 0;
+    }
+
+    // A worker of visit(DeclarationList), putting into the parent's array,
+    // which already covers every id of the tree
+    private TypeChecker(TypeChecker parent) {
+        types = parent.types;
+        base = parent.base;
+        low = Integer.MAX_VALUE;
+        diagnostics = new Diagnostics(parent.diagnostics.maxErrors());
     }
 
     private void put(Command node, Type type) {
         if (type instanceof ErrorType) {
-            reportError(node.lineNumber(), node.charPosition(), ((ErrorType) type).getMessage());
+            diagnostics.report(Diagnostics.Code.TYPE, node.lineNumber(), node.charPosition(), type);
+        }
+        store(node.id(), type);
+    }
+
+    private void store(int id, Type type) {
+        if (base < 0) {
+            base = id;
+        } else if (id < base) {
+            // a node of the declaration built before the first one put: the
+            // types put are moved to the top of the array, which only grows
+            // if they do not fit below it, doubling as it does upwards
+            final int length = high - id < types.length ? types.length : Math.max(types.length * 2, high - id + 1);
+            final int grownBase = Math.max(0, high + 1 - length);
+            final Type[] grown = length == types.length ? types : new Type[length];
+            if (low <= high) {
+                System.arraycopy(types, low - base, grown, low - grownBase, high - low + 1);
+                if (grown == types) {
+                    Arrays.fill(types, low - base, Math.min(low - grownBase, high - base + 1), null);
+                }
+            }
+            types = grown;
+            base = grownBase;
+        }
+        if (id - base >= types.length) {
+            types = Arrays.copyOf(types, Math.max(id - base + 1, types.length * 2));
         }
-        typeMap.put(node, type);
+        types[id - base] = type;
+        low = Math.min(low, id);
+        high = Math.max(high, id);
     }
 
     public Type getType(Visitable node) {
-        return typeMap.get(node);
+        final int index = ((Command) node).id() - base;
+        return index >= 0 && index < types.length ? types[index] : null;
+    }
+
+    // Forgets the types put so far, for a compile that streams the program
+    // and releases each declaration once it is generated. The errors stay.
+    public void release() {
+        if (low <= high) {
+            Arrays.fill(types, low - base, high - base + 1, null);
+        }
+        base = -1;
+        low = Integer.MAX_VALUE;
+        high = 0;
     }
 
     public boolean check(Command ast) {
-        ast.accept(this);
+        if (threads > 0) {
+            pool = new ForkJoinPool(threads);
+        }
+        try {
+            dispatch(ast);
+        } finally {
+            if (pool != null) {
+                pool.shutdown();
+                pool = null;
+            }
+        }
         return !hasError();
     }
 
+    private TypeChecker checkDeclaration(Declaration declaration) {
+        dispatch(declaration);
+        return this;
+    }
+
+    // Expressions are checked bottom-up by a Traversal, so each of their
+    // visits only combines the types already put for its subexpressions.
+    // Statements still visit their blocks recursively.
+    private Type checkExpression(Visitable expression) {
+        Traversal.walk((Command) expression, this);
+        return getType(expression);
+    }
+
+    @Override
+    public void enter(Command node) {
+    }
+
+    @Override
+    public void leave(Command node) {
+        dispatch(node);
+    }
+
     public boolean hasError() {
-        return errorBuffer.length() != 0;
+        return diagnostics.hasError();
     }
 
     public String errorReport() {
-        return errorBuffer.toString();
+        return diagnostics.report();
+    }
+
+    // Reports at most maxErrors errors; set before checking
+    public void setMaxErrors(int maxErrors) {
+        diagnostics = new Diagnostics(maxErrors);
+    }
+
+    // Forgets the errors reported so far, keeping the limit, for a caller
+    // that checks again what it had partly checked
+    public void clearErrors() {
+        diagnostics = new Diagnostics(diagnostics.maxErrors());
     }
 
     @Override
     public void visit(ExpressionList node) {
-        final TypeList typeList = new TypeList();
+        final ArrayList<Type> typeList = new ArrayList<>();
         for (Expression expression : node) {
-            expression.accept(this);
-            typeList.append(getType(expression));
+            typeList.add(getType(expression));
         }
-        put(node, typeList);
+        put(node, TypeList.of(typeList));
     }
 
     @Override
     public void visit(DeclarationList node) {
-        final TypeList typeList = new TypeList();
-        for (Declaration declaration : node) {
-            declaration.accept(this);
-            typeList.append(getType(declaration));
+        final ArrayList<Type> typeList = new ArrayList<>();
+        if (pool == null) {
+            for (Declaration declaration : node) {
+                dispatch(declaration);
+                typeList.add(getType(declaration));
+            }
+        } else {
+            final int maxId = Traversal.maxId(node);
+            if (base < 0) {
+                base = 0;
+            }
+            if (maxId - base >= types.length) {
+                types = Arrays.copyOf(types, maxId - base + 1);
+            }
+            final ArrayList<ForkJoinTask<TypeChecker>> workers = new ArrayList<>();
+            for (Declaration declaration : node) {
+                final TypeChecker worker = new TypeChecker(this);
+                workers.add(pool.submit(() -> worker.checkDeclaration(declaration)));
+            }
+            int i = 0;
+            for (Declaration declaration : node) {
+                final TypeChecker worker = workers.get(i++).join();
+                low = Math.min(low, worker.low);
+                high = Math.max(high, worker.high);
+                diagnostics.addAll(worker.diagnostics);
+                typeList.add(getType(declaration));
+            }
         }
-        put(node, typeList);
+        put(node, TypeList.of(typeList));
     }
 
     @Override
     public void visit(StatementList node) {
-        final TypeList typeList = new TypeList();
         for (Statement statement : node) {
-            statement.accept(this);
-            typeList.append(getType(statement));
+            if (statement instanceof Call) {
+                checkExpression(statement);
+            } else {
+                dispatch(statement);
+            }
         }
-        put(node, typeList);
+        checkStatements(node);
     }
 
     @Override
     public void visit(AddressOf node) {
-        put(node, new AddressType(node.symbol().type()));
+        put(node, AddressType.of(node.symbol().type()));
     }
 
     @Override
     public void visit(LiteralBool node) {
-        put(node, new BoolType());
+        put(node, BoolType.INSTANCE);
     }
 
     @Override
     public void visit(LiteralFloat node) {
-        put(node, new FloatType());
+        put(node, FloatType.INSTANCE);
     }
 
     @Override
     public void visit(LiteralInt node) {
-        put(node, new IntType());
+        put(node, IntType.INSTANCE);
     }
 
     @Override
@@ -127,7 +259,7 @@ public class TypeChecker implements CommandVisitor {
         if (type instanceof IntType || type instanceof FloatType || type instanceof BoolType) {
             put(node, node.symbol().type());
         } else {
-            put(node, new ErrorType("Variable " + node.symbol().name() + " has invalid type " + type + "."));
+            put(node, new ErrorType(() -> "Variable " + node.symbol().name() + " has invalid type " + type + "."));
         }
     }
 
@@ -138,144 +270,87 @@ public class TypeChecker implements CommandVisitor {
             baseType = ((ArrayType) baseType).base();
         }
         if (!(baseType instanceof IntType || baseType instanceof FloatType || baseType instanceof BoolType)) {
-            put(node, new ErrorType("Array " + node.symbol().name() + " has invalid base type " + baseType + "."));
+            final Type invalid = baseType;
+            put(node, new ErrorType(() -> "Array " + node.symbol().name() + " has invalid base type " + invalid + "."));
         }
     }
 
     @Override
     public void visit(FunctionDefinition node) {
-        final FuncType funcType = (FuncType) node.function().type();
-        final Type returnType = funcType.returnType();
-        final TypeList argsType = funcType.arguments();
-
-        if (node.function().name().equals("main")) {
-            if (!(returnType instanceof VoidType) || argsType.count() > 0) {
-                put(node, new ErrorType("Function main has invalid signature."));
-                return;
-            }
-        } else {
-            for (Type t : argsType) {
-                if (t instanceof VoidType) {
-                    put(node, new ErrorType("Function " + node.function().name()
-                            + " has a void argument in position " +
-                            (node.charPosition() - 1) + "."));
-                    return;
-                } else if (t instanceof ErrorType) {
-                    put(node, new ErrorType("Function " + node.function().name()
-                            + " has an error in argument in position" + " " +
-                            (node.charPosition() - 1) + ": " + ((ErrorType) t).getMessage()));
-                    return;
-                }
-            }
-        }
-
-        currentFunction = node.function();
-        node.body().accept(this);
-
-        if (!(returnType instanceof VoidType)) {
-            final TypeList paths = (TypeList) getType(node.body());
-            boolean missingArgs = true;
-            for (Type t : paths) {
-                if (returnType.equivalent(t)) {
-                    missingArgs = false;
-                    break;
-                } else if (t instanceof ErrorType) {
-                    missingArgs = false;
-                    break;
-                }
-            }
-            if (missingArgs) {
-                put(node, new ErrorType("Not all paths in function " + node.function().name() + " have a return."));
-            }
+        if (checkSignature(node) && node.isReached()) {
+            dispatch(node.body());
+            checkReturns(node);
         }
     }
 
     @Override
     public void visit(Comparison node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.compare(right));
     }
 
     @Override
     public void visit(Addition node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.add(right));
     }
 
     @Override
     public void visit(Subtraction node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.sub(right));
     }
 
     @Override
     public void visit(Multiplication node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.mul(right));
     }
 
     @Override
     public void visit(Division node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.div(right));
     }
 
     @Override
     public void visit(LogicalAnd node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.and(right));
     }
 
     @Override
     public void visit(LogicalOr node) {
-        node.leftSide().accept(this);
         final Type left = getType(node.leftSide());
-        node.rightSide().accept(this);
         final Type right = getType(node.rightSide());
         put(node, left.or(right));
     }
 
     @Override
     public void visit(LogicalNot node) {
-        node.expression().accept(this);
         put(node, getType(node.expression()).not());
     }
 
     @Override
     public void visit(Dereference node) {
-        node.expression().accept(this);
         final Type type = getType(node.expression());
         put(node, type.deref());
     }
 
     @Override
     public void visit(Index node) {
-        node.base().accept(this);
         Type baseType = getType(node.base());
-        node.amount().accept(this);
         final Type amountType = getType(node.amount());
 
         final Type type;
         if (baseType instanceof AddressType && ((AddressType) baseType).base() instanceof ArrayType) {
-            type = new AddressType(((AddressType) baseType).base().index(amountType));
+            type = AddressType.of(((AddressType) baseType).base().index(amountType));
         } else {
             type = baseType.index(amountType);
         }
@@ -285,17 +360,13 @@ public class TypeChecker implements CommandVisitor {
 
     @Override
     public void visit(Assignment node) {
-        node.destination().accept(this);
-        final Type destType = getType(node.destination());
-        node.source().accept(this);
-        final Type srcType = getType(node.source());
-        final Type assignType = destType.assign(srcType);
-        put(node, assignType);
+        checkExpression(node.destination());
+        checkExpression(node.source());
+        checkAssignment(node);
     }
 
     @Override
     public void visit(Call node) {
-        node.arguments().accept(this);
         final FuncType funcType = (FuncType) node.function().type();
         final Type argType = getType(node.arguments());
         put(node, funcType.call(argType));
@@ -303,44 +374,132 @@ public class TypeChecker implements CommandVisitor {
 
     @Override
     public void visit(IfElseBranch node) {
-        node.condition().accept(this);
-        final Type condType = getType(node.condition());
-        if (condType instanceof BoolType) {
-            node.thenBlock().accept(this);
-            node.elseBlock().accept(this);
-        } else {
-            put(node, new ErrorType("IfElseBranch requires bool condition not " + condType + "."));
+        checkExpression(node.condition());
+        if (checkCondition(node)) {
+            dispatch(node.thenBlock());
+            dispatch(node.elseBlock());
         }
     }
 
     @Override
     public void visit(WhileLoop node) {
-        node.condition().accept(this);
-        final Type type = getType(node.condition());
-        if (!(type instanceof BoolType)) {
-            put(node, new ErrorType("WhileLoop requires bool condition not " + type + "."));
-        }
-        node.body().accept(this);
+        checkExpression(node.condition());
+        checkCondition(node);
+        dispatch(node.body());
     }
 
     @Override
     public void visit(Return node) {
-        node.argument().accept(this);
+        checkExpression(node.argument());
+        checkReturn(node);
+    }
+
+    @Override
+    public void visit(ast.Error node) {
+        put(node, new ErrorType(node.message()));
+    }
 
+    // The parts of the statement visits that come before or after their
+    // blocks are visited, once their expressions are checked. FusedCodeGen
+    // calls them as it generates each statement, instead of visiting the
+    // statement here.
+
+    // Checks the signature of a function, and returns whether its body is
+    // to be checked
+    public boolean checkSignature(FunctionDefinition node) {
+        final FuncType funcType = (FuncType) node.function().type();
+        final Type returnType = funcType.returnType();
+        final TypeList argsType = funcType.arguments();
+
+        if (node.function().name().equals("main")) {
+            if (!(returnType instanceof VoidType) || argsType.count() > 0) {
+                put(node, new ErrorType("Function main has invalid signature."));
+                return false;
+            }
+        } else {
+            for (Type t : argsType) {
+                if (t instanceof VoidType) {
+                    put(node, new ErrorType(() -> "Function " + node.function().name()
+                            + " has a void argument in position " +
+                            (node.charPosition() - 1) + "."));
+                    return false;
+                } else if (t instanceof ErrorType) {
+                    put(node, new ErrorType(() -> "Function " + node.function().name()
+                            + " has an error in argument in position" + " " +
+                            (node.charPosition() - 1) + ": " + ((ErrorType) t).getMessage()));
+                    return false;
+                }
+            }
+        }
+
+        currentFunction = node.function();
+        return true;
+    }
+
+    // Checks that a function whose body is checked returns on every path
+    public void checkReturns(FunctionDefinition node) {
+        final Type returnType = ((FuncType) node.function().type()).returnType();
+        if (!(returnType instanceof VoidType)) {
+            final TypeList paths = (TypeList) getType(node.body());
+            boolean missingArgs = true;
+            for (Type t : paths) {
+                if (returnType.equivalent(t)) {
+                    missingArgs = false;
+                    break;
+                } else if (t instanceof ErrorType) {
+                    missingArgs = false;
+                    break;
+                }
+            }
+            if (missingArgs) {
+                put(node, new ErrorType(() -> "Not all paths in function " + node.function().name() + " have a return."));
+            }
+        }
+    }
+
+    public void checkStatements(StatementList node) {
+        final ArrayList<Type> typeList = new ArrayList<>();
+        for (Statement statement : node) {
+            typeList.add(getType(statement));
+        }
+        put(node, TypeList.of(typeList));
+    }
+
+    public void checkAssignment(Assignment node) {
+        final Type destType = getType(node.destination());
+        final Type srcType = getType(node.source());
+        final Type assignType = destType.assign(srcType);
+        put(node, assignType);
+    }
+
+    // Checks the condition of a branch, and returns whether its blocks are
+    // to be checked
+    public boolean checkCondition(IfElseBranch node) {
+        final Type condType = getType(node.condition());
+        if (condType instanceof BoolType) {
+            return true;
+        }
+        put(node, new ErrorType(() -> "IfElseBranch requires bool condition not " + condType + "."));
+        return false;
+    }
+
+    public void checkCondition(WhileLoop node) {
+        final Type type = getType(node.condition());
+        if (!(type instanceof BoolType)) {
+            put(node, new ErrorType(() -> "WhileLoop requires bool condition not " + type + "."));
+        }
+    }
+
+    public void checkReturn(Return node) {
         final Type retType = getType(node.argument());
-        final FuncType funcType = (FuncType) currentFunction.type();
+        final Symbol function = currentFunction;
+        final FuncType funcType = (FuncType) function.type();
         if (!retType.equivalent(funcType.returnType())) {
-            put(node, new ErrorType("Function " + currentFunction.name()
+            put(node, new ErrorType(() -> "Function " + function.name()
                     + " returns " + funcType.returnType()
                     + " not " + retType + "."));
         } else {
             put(node, retType);
         }
-
-    }
-
-    @Override
-    public void visit(ast.Error node) {
-        put(node, new ErrorType(node.message()));
     }
 }
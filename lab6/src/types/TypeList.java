@@ -1,19 +1,27 @@
 package types;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
 
 public class TypeList extends Type implements Iterable<Type> {
 
-    private List<Type> list;
+    private static final Interner<TypeList> interned = new Interner<>();
 
-    public TypeList() {
-        list = new ArrayList<Type>();
+    private List<Object> list;
+
+    private TypeList(List<Object> list) {
+        this.list = list;
+    }
+
+    public static TypeList of(Type... types) {
+        return of(Arrays.asList(types));
     }
 
-    public void append(Type type) {
-        list.add(type);
+    public static TypeList of(List<? extends Type> types) {
+        return interned.intern(Collections.unmodifiableList(new ArrayList<Object>(types)), TypeList::new);
     }
 
     public int count() {
@@ -33,27 +41,19 @@ public class TypeList extends Type implements Iterable<Type> {
         return sb.toString();
     }
 
-    @Override
-    public boolean equivalent(Type that) {
-        if (that == null)
-            return false;
-        if (!(that instanceof TypeList))
-            return false;
-
-        List<Type> olist = ((TypeList) that).list;
-
-        if (list.size() != olist.size())
-            return false;
-
-        for (int i = 0; i < list.size(); ++i) {
-            if (!list.get(i).equivalent(olist.get(i)))
-                return false;
-        }
-        return true;
-    }
-
     @Override
     public Iterator<Type> iterator() {
-        return list.iterator();
+        final Iterator<Object> types = list.iterator();
+        return new Iterator<Type>() {
+            @Override
+            public boolean hasNext() {
+                return types.hasNext();
+            }
+
+            @Override
+            public Type next() {
+                return (Type) types.next();
+            }
+        };
     }
 }
@@ -34,6 +34,16 @@ javac $(find ./lab6/src -name "*.java") -d ${BUILD_DIR}
 
 ret_val=0
 
+COMPILE=crux.Compiler
+if [[ -n "${COMPILE_SERVER}" ]]
+then
+    # compile through one warm crux.CompileServer on the given port
+    java -classpath ${BUILD_DIR} crux.CompileServer ${COMPILE_SERVER} &
+    trap "java -classpath ${BUILD_DIR} crux.CompileClient -port ${COMPILE_SERVER} -shutdown" EXIT
+    sleep 1
+    COMPILE="crux.CompileClient -port ${COMPILE_SERVER}"
+fi
+
 echo "> Running tests in "${TESTS_DIR}
 for i in "${TESTS[@]}"
 do
@@ -43,8 +53,22 @@ do
     fi
 
     FILE=${TESTS_DIR}/$i
-    java -classpath ${BUILD_DIR} crux.Compiler ${FILE}.crx
-    result=$(diff -a <(cat ${FILE%.crx}.in  | spim -file ${FILE%.crx}.asm | tail -n +2) ${FILE%.crx}.out)
+    if [[ -n "${SIMULATE}" ]]
+    then
+        # compile and run in-process with mips.Simulator instead of spim
+        result=$(diff -a <(cat ${FILE}.in | java -classpath ${BUILD_DIR} mips.Simulator ${FILE}.crx) ${FILE}.out)
+    elif [[ -n "${INTERP}" ]]
+    then
+        # run the type-checked AST directly with interp.Interpreter
+        result=$(diff -a <(cat ${FILE}.in | java -classpath ${BUILD_DIR} interp.Interpreter ${FILE}.crx) ${FILE}.out)
+    elif [[ -n "${JVM}" ]]
+    then
+        # compile to JVM bytecode and run in-process with jvm.BytecodeGen
+        result=$(diff -a <(cat ${FILE}.in | java -classpath ${BUILD_DIR} jvm.BytecodeGen ${FILE}.crx) ${FILE}.out)
+    else
+        java -classpath ${BUILD_DIR} ${COMPILE} ${FILE}.crx
+        result=$(diff -a <(cat ${FILE%.crx}.in  | spim -file ${FILE%.crx}.asm | tail -n +2) ${FILE%.crx}.out)
+    fi
     test_name=${FILE##*/}
     if [[ -z ${result} ]]
     then